@@ -0,0 +1,21 @@
+package net.hollowcube.posthog;
+
+/**
+ * Point in time statistics for one of the client side caches.
+ *
+ * @param hits Number of lookups answered from the cache
+ * @param misses Number of lookups which were not present (or had expired)
+ * @param evictions Number of entries removed to stay within the size limit
+ * @param size Number of entries currently held
+ */
+public record CacheStats(long hits, long misses, long evictions, int size) {
+    public static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0);
+
+    /**
+     * Returns the ratio of hits to total lookups, or zero if there have been no lookups.
+     */
+    public double hitRate() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,57 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * Stops sending requests to a failing dependency.
+ *
+ * <p>The breaker opens after {@code failureThreshold} consecutive failures, rejecting all requests for
+ * {@code openDuration}. After that a single trial request is let through (half open): if it succeeds
+ * the breaker closes, otherwise it stays open for another {@code openDuration}.</p>
+ */
+final class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openNanos;
+
+    // Guarded by this
+    private int consecutiveFailures = 0;
+    private boolean open = false;
+    private long openedAt;
+    private boolean trialInFlight = false;
+
+    CircuitBreaker(int failureThreshold, @NotNull Duration openDuration) {
+        if (failureThreshold <= 0) throw new IllegalArgumentException("Failure threshold must be positive");
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return true if a request may be sent, false if the breaker is open.
+     */
+    synchronized boolean tryAcquire() {
+        if (!open) return true;
+        if (trialInFlight || System.nanoTime() - openedAt < openNanos) return false;
+        trialInFlight = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        open = false;
+        trialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        trialInFlight = false;
+        if (open || ++consecutiveFailures >= failureThreshold) {
+            open = true;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,184 @@
+package net.hollowcube.posthog;
+
+import net.hollowcube.posthog.FeatureFlagsResponse.Condition;
+import net.hollowcube.posthog.FeatureFlagsResponse.Flag;
+import net.hollowcube.posthog.FeatureFlagsResponse.Property;
+import net.hollowcube.posthog.FeatureFlagsResponse.Variant;
+import net.hollowcube.posthog.PropertyOperators.PropertyMatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A flag definition prepared for local evaluation when a snapshot is loaded.
+ *
+ * <p>Every state the evaluator can return for the flag (each variant with its payload, each inconclusive
+ * reason) is created here once, so that evaluating the flag does not allocate states.</p>
+ */
+final class CompiledFlag {
+
+    /**
+     * @param override The state to return when the condition matches and sets a valid variant override,
+     *                 or null if it does not.
+     */
+    record CompiledCondition(
+            @NotNull Condition condition,
+            @NotNull List<CompiledProperty> properties,
+            @Nullable FeatureFlagState override
+    ) {
+    }
+
+    /**
+     * @param missing Returned when the person does not have the property
+     * @param matcher Matches the operator and operand against a present property value
+     */
+    record CompiledProperty(
+            @NotNull Property property,
+            @NotNull FeatureFlagState missing,
+            @NotNull PropertyMatcher matcher
+    ) {
+        static @NotNull CompiledProperty compile(@NotNull Property property) {
+            final String missingReason = String.format("Cannot match against property without a given value (%s)", property.key());
+            return new CompiledProperty(property,
+                    new FeatureFlagState(false, null, missingReason),
+                    PropertyOperators.compile(property));
+        }
+    }
+
+    private final Flag flag;
+    private final List<CompiledCondition> conditions;
+    private final FeatureFlagState enabled;
+    private final FeatureFlagState[] variants;
+    private final FeatureFlagState experienceContinuity;
+
+    private CompiledFlag(
+            @NotNull Flag flag, @NotNull List<CompiledCondition> conditions, @NotNull FeatureFlagState enabled,
+            @NotNull FeatureFlagState @NotNull [] variants, @NotNull FeatureFlagState experienceContinuity
+    ) {
+        this.flag = flag;
+        this.conditions = conditions;
+        this.enabled = enabled;
+        this.variants = variants;
+        this.experienceContinuity = experienceContinuity;
+    }
+
+    static @NotNull CompiledFlag compile(@NotNull Flag flag) {
+        final List<Variant> variantList = variants(flag);
+        final FeatureFlagState[] variants = new FeatureFlagState[variantList.size()];
+        for (int i = 0; i < variants.length; i++) {
+            variants[i] = withPayload(flag, new FeatureFlagState(true, variantList.get(i).key(), null), variantList.get(i).key());
+        }
+
+        // Stable sort conditions with variant overrides to the top. This ensures that if overrides are present,
+        // they are evaluated first, and the variant override is applied to the first matching condition.
+        final List<Condition> sorted = new ArrayList<>(flag.filters().groups());
+        sorted.sort((a, b) -> {
+            int left = 1, right = 1;
+            if (a.variant() != null)
+                left = -1;
+            if (b.variant() != null)
+                right = -1;
+            return left - right;
+        });
+
+        final List<CompiledCondition> conditions = new ArrayList<>(sorted.size());
+        for (final Condition condition : sorted) {
+            final List<CompiledProperty> properties = new ArrayList<>();
+            if (condition.properties() != null) {
+                for (final Property property : condition.properties())
+                    properties.add(CompiledProperty.compile(property));
+            }
+
+            // Note that overrides do not include a payload.
+            FeatureFlagState override = null;
+            if (condition.variant() != null && containsVariant(variantList, condition.variant()))
+                override = new FeatureFlagState(true, condition.variant(), null);
+
+            conditions.add(new CompiledCondition(condition, List.copyOf(properties), override));
+        }
+
+        final String experienceContinuityReason = "Feature flag " + flag.key() + " requires experience continuity, cannot be evaluated locally";
+        return new CompiledFlag(flag, List.copyOf(conditions),
+                withPayload(flag, FeatureFlagState.ENABLED, "true"), variants,
+                new FeatureFlagState(false, null, experienceContinuityReason));
+    }
+
+    @NotNull String key() {
+        return flag.key();
+    }
+
+    /**
+     * Returns the definition this flag was compiled from.
+     */
+    @NotNull Flag flag() {
+        return flag;
+    }
+
+    /**
+     * Returns the conditions in evaluation order.
+     */
+    @NotNull List<CompiledCondition> conditions() {
+        return conditions;
+    }
+
+    /**
+     * Returns the state for a match without a variant, including the payload if any.
+     */
+    @NotNull FeatureFlagState enabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the state for the variant at the given index of the flag definition, including its payload.
+     */
+    @NotNull FeatureFlagState variant(int index) {
+        return variants[index];
+    }
+
+    @NotNull FeatureFlagState experienceContinuity() {
+        return experienceContinuity;
+    }
+
+    /**
+     * Returns the prepared state for a result of this flag (eg one evaluated remotely), or null if the
+     * variant is not part of the definition.
+     */
+    @Nullable FeatureFlagState stateOf(boolean enabled, @Nullable String variant) {
+        if (!enabled) return FeatureFlagState.DISABLED;
+        if (variant == null) return this.enabled;
+        for (final FeatureFlagState state : variants)
+            if (variant.equals(state.getVariant()))
+                return state;
+        return null;
+    }
+
+    /**
+     * Returns the state for a result remembered by the experience continuity store, or null if it no longer
+     * fits the definition: the flag is inactive, or the variant (or lack of one) does not match its variants.
+     */
+    @Nullable FeatureFlagState storedStateOf(@NotNull ExperienceContinuityStore.Entry entry) {
+        if (!flag.active()) return null;
+        if (entry.enabled() && entry.variant() == null && variants.length != 0) return null;
+        return stateOf(entry.enabled(), entry.variant());
+    }
+
+    private static @NotNull List<Variant> variants(@NotNull Flag flag) {
+        final FeatureFlagsResponse.Variants multivariate = flag.filters().multivariate();
+        if (multivariate == null || multivariate.variants() == null) return List.of();
+        return multivariate.variants();
+    }
+
+    private static boolean containsVariant(@NotNull List<Variant> variants, @NotNull String variant) {
+        for (final Variant v : variants)
+            if (v.key().equals(variant))
+                return true;
+        return false;
+    }
+
+    private static @NotNull FeatureFlagState withPayload(@NotNull Flag flag, @NotNull FeatureFlagState state, @NotNull String payloadKey) {
+        final String payload = flag.filters().payloads().get(payloadKey);
+        return payload != null ? new FeatureFlagState(state, payload) : state;
+    }
+}
@@ -0,0 +1,159 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of parsed /decide responses.
+ *
+ * <p>Entries are keyed by the distinct id and a 64 bit hash of the groups, person properties and group properties
+ * sent with the request. Only responses for all flags are cached, the flag key of a {@link Key} is set only for
+ * uncached single flag requests, which use the key for request coalescing. An entry is fresh for {@code ttl},
+ * after which it may still be served for {@code staleWhileRevalidate} while a single background refresh is
+ * triggered.</p>
+ */
+final class DecideCache {
+
+    record Key(@NotNull String distinctId, @Nullable String flagKey, long contextHash) {
+    }
+
+    private static final class Entry {
+        private final FeatureFlagStates states;
+        private final long loadedAt;
+        private boolean revalidating = false;
+
+        private Entry(@NotNull FeatureFlagStates states, long loadedAt) {
+            this.states = states;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long staleNanos;
+
+    // Guarded by itself. Access ordered so that iteration starts at the least recently used entry.
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Incremented on invalidation so that responses requested before the invalidation are not stored.
+    private long generation = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    DecideCache(int maxSize, @NotNull Duration ttl, @NotNull Duration staleWhileRevalidate) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Max size must be positive");
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.staleNanos = staleWhileRevalidate.toNanos();
+    }
+
+    static @NotNull Key key(@NotNull Gson gson, @NotNull String distinctId, @Nullable String flagKey, @NotNull FeatureFlagContext context) {
+        final JsonObject fingerprint = new JsonObject();
+        if (context.groups() != null) fingerprint.add("groups", gson.toJsonTree(context.groups()));
+        if (context.personProperties() != null) fingerprint.add("person_properties", gson.toJsonTree(context.personProperties()));
+        if (context.groupProperties() != null) fingerprint.add("group_properties", gson.toJsonTree(context.groupProperties()));
+        return new Key(distinctId, flagKey, hash(fingerprint.toString()));
+    }
+
+    /**
+     * Returns the cached response for the given key, or null if there is no usable entry.
+     *
+     * <p>If the entry is past its ttl but within the stale window, it is returned and {@code revalidate} is
+     * called if no other revalidation is already in progress for the entry. A revalidation completing with null
+     * or an exception lets the next caller try again.</p>
+     */
+    @Nullable FeatureFlagStates get(@NotNull Key key, @NotNull Supplier<CompletableFuture<@Nullable FeatureFlagStates>> revalidate) {
+        final long now = System.nanoTime();
+        Entry revalidating = null;
+        final FeatureFlagStates result;
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            final long age = entry != null ? now - entry.loadedAt : Long.MAX_VALUE;
+            if (entry == null || age > ttlNanos + staleNanos) {
+                if (entry != null) entries.remove(key);
+                misses.increment();
+                return null;
+            }
+
+            if (age > ttlNanos && !entry.revalidating) {
+                entry.revalidating = true;
+                revalidating = entry;
+            }
+            result = entry.states;
+        }
+
+        hits.increment();
+        if (revalidating != null) {
+            final Entry entry = revalidating;
+            // A successful refresh replaces the entry, so only failures need to reset the flag.
+            revalidate.get().whenComplete((states, e) -> {
+                if (states != null && e == null) return;
+                synchronized (entries) {
+                    entry.revalidating = false;
+                }
+            });
+        }
+        return result;
+    }
+
+    long generation() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Stores the given response, unless the cache has been invalidated since {@code generation} was read.
+     */
+    void put(@NotNull Key key, @NotNull FeatureFlagStates states, long generation) {
+        synchronized (entries) {
+            if (this.generation != generation) return;
+
+            entries.put(key, new Entry(states, System.nanoTime()));
+            if (entries.size() > maxSize) {
+                final Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+                while (entries.size() > maxSize && iter.hasNext()) {
+                    iter.next();
+                    iter.remove();
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    @NotNull CacheStats stats() {
+        final int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    // FNV-1a, 64 bit
+    private static long hash(@NotNull String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,56 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+final class DecideResponse {
+
+    /**
+     * Reads the flag states from a /decide response without building a tree of the whole response. If a flag key
+     * is given, every other flag (and its payload) is skipped, even if the server evaluated it.
+     */
+    static @NotNull FeatureFlagStates readStates(@NotNull Gson gson, @NotNull JsonReader reader, @Nullable String flagKey) throws IOException {
+        final JsonObject featureFlags = new JsonObject();
+        final JsonObject featureFlagPayloads = new JsonObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "featureFlags" -> readObject(gson, reader, flagKey, featureFlags);
+                case "featureFlagPayloads" -> readObject(gson, reader, flagKey, featureFlagPayloads);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        final Map<String, FeatureFlagState> states = new HashMap<>();
+        for (final String key : featureFlags.keySet())
+            states.put(key, new FeatureFlagState(featureFlags, featureFlagPayloads, key));
+        return new FeatureFlagStates(states);
+    }
+
+    private static void readObject(@NotNull Gson gson, @NotNull JsonReader reader, @Nullable String flagKey, @NotNull JsonObject target) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String key = reader.nextName();
+            if (flagKey == null || flagKey.equals(key)) target.add(key, gson.fromJson(reader, JsonElement.class));
+            else reader.skipValue();
+        }
+        reader.endObject();
+    }
+
+    private DecideResponse() {
+    }
+}
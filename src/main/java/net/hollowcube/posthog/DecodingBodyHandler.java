@@ -0,0 +1,73 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams a response body, decompressing it if the server used gzip. {@link java.net.http.HttpClient} neither
+ * asks for nor decodes compressed responses by itself, so requests using this handler should be built with
+ * {@link #acceptEncoding(HttpRequest.Builder)}.
+ */
+final class DecodingBodyHandler implements HttpResponse.BodyHandler<InputStream> {
+    static final DecodingBodyHandler INSTANCE = new DecodingBodyHandler();
+
+    static @NotNull HttpRequest.Builder acceptEncoding(@NotNull HttpRequest.Builder builder) {
+        return builder.header("Accept-Encoding", "gzip");
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<InputStream> apply(HttpResponse.ResponseInfo responseInfo) {
+        final boolean gzip = responseInfo.headers().firstValue("Content-Encoding")
+                .map(encoding -> encoding.trim().equalsIgnoreCase("gzip"))
+                .orElse(false);
+        final HttpResponse.BodySubscriber<InputStream> body = HttpResponse.BodySubscribers.ofInputStream();
+        return gzip ? HttpResponse.BodySubscribers.mapping(body, GzipBody::new) : body;
+    }
+
+    /**
+     * Creates the {@link GZIPInputStream} on first read, because its constructor blocks reading the gzip header
+     * and mapping functions must not block.
+     */
+    private static final class GzipBody extends InputStream {
+        private final InputStream compressed;
+        private GZIPInputStream decompressed = null;
+
+        private GzipBody(@NotNull InputStream compressed) {
+            this.compressed = compressed;
+        }
+
+        private @NotNull InputStream decompressed() throws IOException {
+            if (decompressed == null) decompressed = new GZIPInputStream(compressed, 8192);
+            return decompressed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decompressed().read();
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            return decompressed().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decompressed().available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (decompressed != null) decompressed.close();
+            else compressed.close();
+        }
+    }
+
+    private DecodingBodyHandler() {
+    }
+}
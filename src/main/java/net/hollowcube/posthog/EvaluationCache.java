@@ -0,0 +1,134 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of local evaluation results, keyed by flag key, distinct id and evaluation context.
+ *
+ * <p>Entries are tagged with the version of the flag definitions they were evaluated against and are
+ * ignored once a newer version is published.</p>
+ *
+ * <p>Flag checks are heavily skewed towards a few flags for the currently active users, so each stripe is a
+ * segmented LRU: new entries start in a small probation segment and are only promoted to the protected
+ * segment when hit again. One off evaluations (eg {@code getAllFeatureFlags} for an inactive user) then
+ * cannot flush out the hot entries.</p>
+ */
+final class EvaluationCache {
+    private static final int STRIPES = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * The context objects are compared with {@link Object#equals(Object)}. Maps and records compare by value,
+     * other types will generally only hit when the same instance is passed again.
+     */
+    record Key(
+            @NotNull String flagKey, @NotNull String distinctId,
+            @Nullable Object groups, @Nullable Object personProperties,
+            @Nullable Map<String, Object> groupProperties, boolean completePersonProperties
+    ) {
+        static @NotNull Key of(@NotNull String flagKey, @NotNull String distinctId, @NotNull FeatureFlagContext context) {
+            return new Key(flagKey, distinctId, context.groups(), context.personProperties(), context.groupProperties(),
+                    context.completePersonProperties());
+        }
+    }
+
+    private record Entry(@NotNull FeatureFlagState state, long version) {
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    EvaluationCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Max size must be positive");
+        // Spread the remainder over the first stripes so the total is exactly maxSize. Below STRIPES entries
+        // some stripes have no room, and keys in them are never cached.
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(maxSize / STRIPES + (i < maxSize % STRIPES ? 1 : 0));
+    }
+
+    @Nullable FeatureFlagState get(@NotNull Key key, long version) {
+        final FeatureFlagState state = stripe(key).get(key, version);
+        (state != null ? hits : misses).increment();
+        return state;
+    }
+
+    void put(@NotNull Key key, @NotNull FeatureFlagState state, long version) {
+        stripe(key).put(key, new Entry(state, version));
+    }
+
+    @NotNull CacheStats stats() {
+        int size = 0;
+        for (final Stripe stripe : stripes) size += stripe.size();
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private @NotNull Stripe stripe(@NotNull Key key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private final class Stripe {
+        private final int probationSize;
+        private final int protectedSize;
+        // Both access ordered, so iteration starts at the least recently used entry.
+        private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Stripe(int maxSize) {
+            this.protectedSize = (int) (maxSize * PROTECTED_RATIO);
+            this.probationSize = maxSize - protectedSize;
+        }
+
+        synchronized @Nullable FeatureFlagState get(@NotNull Key key, long version) {
+            Entry entry = protect.get(key);
+            if (entry == null) {
+                entry = probation.remove(key);
+                if (entry == null) return null;
+                if (entry.version != version) return null;
+
+                // Second hit, promote to protected and demote the protected LRU entry if full.
+                protect.put(key, entry);
+                if (protect.size() > protectedSize) {
+                    final Iterator<Map.Entry<Key, Entry>> iter = protect.entrySet().iterator();
+                    final Map.Entry<Key, Entry> demoted = iter.next();
+                    iter.remove();
+                    addProbation(demoted.getKey(), demoted.getValue());
+                }
+            } else if (entry.version != version) {
+                protect.remove(key);
+                return null;
+            }
+            return entry.state;
+        }
+
+        synchronized void put(@NotNull Key key, @NotNull Entry entry) {
+            if (protect.containsKey(key)) {
+                protect.put(key, entry);
+                return;
+            }
+            addProbation(key, entry);
+        }
+
+        synchronized int size() {
+            return probation.size() + protect.size();
+        }
+
+        private void addProbation(@NotNull Key key, @NotNull Entry entry) {
+            probation.put(key, entry);
+            if (probation.size() > probationSize) {
+                final Iterator<Map.Entry<Key, Entry>> iter = probation.entrySet().iterator();
+                iter.next();
+                iter.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -58,7 +58,7 @@ final class EventQueue {
         try {
             consumerThread.join(Math.max(0, timeout.toMillis()));
         } catch (InterruptedException ignored) {
-            // Do nothing just exit
+            Thread.currentThread().interrupt();
         }
     }
 
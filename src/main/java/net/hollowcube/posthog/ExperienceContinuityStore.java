@@ -0,0 +1,197 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Bounded store of the last remote result of experience continuity flags, by flag key and distinct id.
+ *
+ * <p>Those flags can never be evaluated locally, but the result for a given person almost never changes (that
+ * is the point of the flag), so the client answers from here and revalidates remotely in the background.</p>
+ *
+ * <p>Entries live in fixed size slots of a single {@link ByteBuffer}, either on the heap or mapped from a file
+ * so that they survive restarts. Slots are grouped into buckets of {@link #WAYS}, a key can only be stored in
+ * the bucket selected by its hash and replaces the oldest entry of the bucket when it is full. Keys are stored
+ * as a 64 bit hash, a collision returns the result of the other key.</p>
+ *
+ * <p>Slot layout (64 bytes): key hash (8), stored at epoch millis (8), enabled (1), variant length (1),
+ * variant UTF-8 bytes (up to {@link #MAX_VARIANT_BYTES}). Results with longer variants are not stored.</p>
+ */
+final class ExperienceContinuityStore {
+    private static final Logger log = LoggerFactory.getLogger(ExperienceContinuityStore.class);
+
+    private static final int MAGIC = 0x50484543; // PHEC
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    static final int SLOT_SIZE = 64;
+    static final int WAYS = 8;
+    static final int MAX_VARIANT_BYTES = SLOT_SIZE - 18;
+    static final int MAX_CAPACITY = 1 << 24;
+    private static final int LOCKS = 64;
+
+    /**
+     * A stored remote result.
+     *
+     * @param storedAt Epoch millis when the result was stored
+     */
+    record Entry(boolean enabled, @Nullable String variant, long storedAt) {
+    }
+
+    private final ByteBuffer buffer;
+    private final int bucketMask;
+    private final Object[] locks;
+
+    private ExperienceContinuityStore(@NotNull ByteBuffer buffer, int buckets) {
+        this.buffer = buffer;
+        this.bucketMask = buckets - 1;
+        this.locks = new Object[Math.min(LOCKS, buckets)];
+        for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+    }
+
+    /**
+     * Creates a store holding at least {@code capacity} entries, backed by the given file if present. If the
+     * file cannot be mapped (or was written with a different capacity) it is replaced, or the store falls back
+     * to the heap if that also fails.
+     */
+    static @NotNull ExperienceContinuityStore open(int capacity, @Nullable Path file) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+        final int minBuckets = (capacity + WAYS - 1) / WAYS;
+        final int buckets = minBuckets == 1 ? 1 : Integer.highestOneBit(minBuckets - 1) << 1;
+        final int size = HEADER_SIZE + buckets * WAYS * SLOT_SIZE;
+
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final boolean reuse = channel.size() == size;
+                if (!reuse) channel.truncate(0);
+                // The mapping stays valid after the channel is closed.
+                final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (!reuse || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION || mapped.getInt(8) != buckets) {
+                    clear(mapped, size);
+                    mapped.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, buckets);
+                }
+                return new ExperienceContinuityStore(mapped, buckets);
+            } catch (IOException | UnsupportedOperationException e) {
+                log.warn("failed to map experience continuity store {}, keeping it in memory", file, e);
+            }
+        }
+
+        return new ExperienceContinuityStore(ByteBuffer.allocate(size), buckets);
+    }
+
+    int capacity() {
+        return (bucketMask + 1) * WAYS;
+    }
+
+    @Nullable Entry get(@NotNull String flagKey, @NotNull String distinctId) {
+        final long hash = hash(flagKey, distinctId);
+        final int bucket = (int) hash & bucketMask;
+        synchronized (lock(bucket)) {
+            final int slot = find(bucket, hash);
+            if (slot == -1) return null;
+            final int variantLength = buffer.get(slot + 17);
+            String variant = null;
+            if (variantLength > 0 && variantLength <= MAX_VARIANT_BYTES) {
+                final byte[] bytes = new byte[variantLength];
+                buffer.get(slot + 18, bytes);
+                variant = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new Entry(buffer.get(slot + 16) != 0, variant, buffer.getLong(slot + 8));
+        }
+    }
+
+    /**
+     * Stores a conclusive result, replacing any previous result for the key.
+     *
+     * @return false if the result could not be stored (inconclusive, or the variant is too long)
+     */
+    boolean put(@NotNull String flagKey, @NotNull String distinctId, @NotNull FeatureFlagState state, long now) {
+        if (state.isInconclusive()) return false;
+        final byte[] variant = state.getVariant() != null ? state.getVariant().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (variant.length > MAX_VARIANT_BYTES) return false;
+
+        final long hash = hash(flagKey, distinctId);
+        final int bucket = (int) hash & bucketMask;
+        synchronized (lock(bucket)) {
+            int slot = find(bucket, hash);
+            if (slot == -1) slot = victim(bucket);
+            buffer.putLong(slot, hash)
+                    .putLong(slot + 8, now)
+                    .put(slot + 16, (byte) (state.isEnabled() ? 1 : 0))
+                    .put(slot + 17, (byte) variant.length)
+                    .put(slot + 18, variant);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a file backed store to disk. Changes are otherwise written back by the OS at some point.
+     */
+    void flush() {
+        if (buffer instanceof MappedByteBuffer mapped) mapped.force();
+    }
+
+    private @NotNull Object lock(int bucket) {
+        return locks[bucket & (locks.length - 1)];
+    }
+
+    private int slotOffset(int bucket, int way) {
+        return HEADER_SIZE + (bucket * WAYS + way) * SLOT_SIZE;
+    }
+
+    private int find(int bucket, long hash) {
+        for (int way = 0; way < WAYS; way++) {
+            final int slot = slotOffset(bucket, way);
+            if (buffer.getLong(slot) == hash) return slot;
+        }
+        return -1;
+    }
+
+    // Returns the first empty slot of the bucket, or the least recently stored one.
+    private int victim(int bucket) {
+        int oldest = slotOffset(bucket, 0);
+        long oldestStoredAt = Long.MAX_VALUE;
+        for (int way = 0; way < WAYS; way++) {
+            final int slot = slotOffset(bucket, way);
+            if (buffer.getLong(slot) == 0) return slot;
+            final long storedAt = buffer.getLong(slot + 8);
+            if (storedAt < oldestStoredAt) {
+                oldest = slot;
+                oldestStoredAt = storedAt;
+            }
+        }
+        return oldest;
+    }
+
+    private static void clear(@NotNull ByteBuffer buffer, int size) {
+        for (int i = 0; i < size; i += 8) buffer.putLong(i, 0);
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-16 chars of both strings, finished with a murmur3 mix. Must be stable across
+     * runs for file backed stores. Zero marks an empty slot, so is never returned.
+     */
+    static long hash(@NotNull String flagKey, @NotNull String distinctId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < flagKey.length(); i++) h = (h ^ flagKey.charAt(i)) * 0x100000001b3L;
+        h = (h ^ 0xffff) * 0x100000001b3L; // Separator, not a valid char
+        for (int i = 0; i < distinctId.length(); i++) h = (h ^ distinctId.charAt(i)) * 0x100000001b3L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+}
@@ -0,0 +1,16 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Notified when the local feature flag definitions change.
+ *
+ * <p>Listeners are called on the thread which loaded the new definitions, after they have been published.
+ * They should not block for long, since this delays the next reload.</p>
+ */
+@FunctionalInterface
+public interface FeatureFlagChangeListener {
+
+    void onFeatureFlagsChanged(@NotNull FeatureFlagChanges changes);
+
+}
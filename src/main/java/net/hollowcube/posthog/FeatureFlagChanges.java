@@ -0,0 +1,28 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+
+/**
+ * Describes the difference between two versions of the local feature flag definitions.
+ *
+ * @param version The version of the definitions after the change, increasing by one for each change
+ * @param added Keys of flags which were not present in the previous version
+ * @param removed Keys of flags which are no longer present
+ * @param changed Keys of flags which are present in both versions with different definitions
+ */
+public record FeatureFlagChanges(
+        long version,
+        @NotNull Set<String> added,
+        @NotNull Set<String> removed,
+        @NotNull Set<String> changed
+) {
+
+    /**
+     * Returns true if the given flag was added, removed or changed.
+     */
+    public boolean affects(@NotNull String key) {
+        return added.contains(key) || removed.contains(key) || changed.contains(key);
+    }
+}
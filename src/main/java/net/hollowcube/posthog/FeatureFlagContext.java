@@ -4,6 +4,7 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
 import java.util.Map;
 
 public record FeatureFlagContext(
@@ -11,10 +12,33 @@ public record FeatureFlagContext(
         @Nullable Object personProperties,
         @Nullable Map<String, Object> groupProperties,
         @Nullable Boolean sendFeatureFlagEvents, // Null will default to client setting
-        @Nullable Boolean allowRemoteEvaluation // Null will default to client setting
+        @Nullable Boolean allowRemoteEvaluation, // Null will default to client setting
+        @Nullable Duration remoteEvaluationTimeout, // Null will wait for the request to complete
+        boolean completePersonProperties // True if a property missing from personProperties is known not to be set
 ) {
     public static final FeatureFlagContext EMPTY = new FeatureFlagContext(null, null, null, null, null);
 
+    public FeatureFlagContext(
+            @Nullable Object groups,
+            @Nullable Object personProperties,
+            @Nullable Map<String, Object> groupProperties,
+            @Nullable Boolean sendFeatureFlagEvents,
+            @Nullable Boolean allowRemoteEvaluation
+    ) {
+        this(groups, personProperties, groupProperties, sendFeatureFlagEvents, allowRemoteEvaluation, null);
+    }
+
+    public FeatureFlagContext(
+            @Nullable Object groups,
+            @Nullable Object personProperties,
+            @Nullable Map<String, Object> groupProperties,
+            @Nullable Boolean sendFeatureFlagEvents,
+            @Nullable Boolean allowRemoteEvaluation,
+            @Nullable Duration remoteEvaluationTimeout
+    ) {
+        this(groups, personProperties, groupProperties, sendFeatureFlagEvents, allowRemoteEvaluation, remoteEvaluationTimeout, false);
+    }
+
     public static @NotNull Builder newBuilder() {
         return new Builder();
     }
@@ -25,6 +49,8 @@ public record FeatureFlagContext(
         private Map<String, Object> groupProperties;
         private Boolean sendFeatureFlagEvents;
         private Boolean allowRemoteEvaluation;
+        private Duration remoteEvaluationTimeout;
+        private boolean completePersonProperties;
 
         private Builder() {
         }
@@ -59,9 +85,34 @@ public record FeatureFlagContext(
             return this;
         }
 
+        /**
+         * Sets the maximum time to wait for remote evaluation. If it passes, the call completes with the local
+         * (inconclusive) result instead. The request itself is not cancelled, so it may still populate the
+         * decide cache.
+         */
+        @Contract("_ -> this")
+        public @NotNull Builder remoteEvaluationTimeout(@Nullable Duration remoteEvaluationTimeout) {
+            if (remoteEvaluationTimeout != null && remoteEvaluationTimeout.isNegative())
+                throw new IllegalArgumentException("Remote evaluation timeout must be positive");
+            this.remoteEvaluationTimeout = remoteEvaluationTimeout;
+            return this;
+        }
+
+        /**
+         * Declares that the person properties contain every property of the person, so that a property missing
+         * from them is not set. Only then can {@code is_not_set} conditions be evaluated locally, otherwise they
+         * are inconclusive when the property is missing. False by default.
+         */
+        @Contract("_ -> this")
+        public @NotNull Builder completePersonProperties(boolean completePersonProperties) {
+            this.completePersonProperties = completePersonProperties;
+            return this;
+        }
+
         @Contract("-> new")
         public @NotNull FeatureFlagContext build() {
-            return new FeatureFlagContext(groups, personProperties, groupProperties, sendFeatureFlagEvents, allowRemoteEvaluation);
+            return new FeatureFlagContext(groups, personProperties, groupProperties, sendFeatureFlagEvents,
+                    allowRemoteEvaluation, remoteEvaluationTimeout, completePersonProperties);
         }
     }
 
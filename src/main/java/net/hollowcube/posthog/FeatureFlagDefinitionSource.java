@@ -0,0 +1,73 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.Blocking;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Provides feature flag definitions for local evaluation.
+ *
+ * <p>By default, clients with a personal api key poll the {@code /api/feature_flag/local_evaluation} endpoint.
+ * A source can be used instead to load the definitions from elsewhere, such as a file written by a sidecar
+ * which fetches them once per host.</p>
+ *
+ * @see PostHogClient.Builder#featureFlagDefinitionSource(FeatureFlagDefinitionSource)
+ */
+public interface FeatureFlagDefinitionSource {
+
+    /**
+     * Receives definitions from a source. Implemented by the client.
+     */
+    interface Sink {
+
+        /**
+         * Parses and applies a local evaluation payload (a response from the {@code /api/feature_flag/local_evaluation}
+         * endpoint). The payload is consumed but not closed. Payloads identical to the current definitions are ignored.
+         *
+         * @param fetchedAt The time the definitions were fetched from PostHog, used to report their age
+         * @return true if the definitions changed
+         * @throws IOException if the payload could not be read or parsed, the current definitions are kept
+         */
+        @Blocking
+        boolean accept(@NotNull InputStream payload, @NotNull Instant fetchedAt) throws IOException;
+
+        /**
+         * Records that the current definitions are still up to date as of the given time.
+         */
+        void unchanged(@NotNull Instant fetchedAt);
+
+    }
+
+    /**
+     * Watches a file containing a local evaluation payload, reloading it as soon as it changes.
+     *
+     * <p>The file should be replaced atomically (eg written next to it and then moved into place), otherwise
+     * a partially written file may be read. Reading fails in that case, and the file is read again on the
+     * next change.</p>
+     */
+    static @NotNull FeatureFlagDefinitionSource file(@NotNull Path file) {
+        return new FileFeatureFlagDefinitionSource(file);
+    }
+
+    /**
+     * Starts delivering definitions to the sink. Called once, when the client is created.
+     */
+    void start(@NotNull Sink sink);
+
+    /**
+     * Requests that the definitions are loaded again as soon as possible.
+     *
+     * @see PostHogClient#reloadFeatureFlags()
+     */
+    void reload();
+
+    /**
+     * Stops the source, called when the client is shut down.
+     */
+    void close();
+
+}
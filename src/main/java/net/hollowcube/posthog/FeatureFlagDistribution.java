@@ -0,0 +1,54 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results of evaluating one feature flag for many distinct ids.
+ *
+ * @param key The feature flag key
+ * @param total Number of distinct ids evaluated
+ * @param enabled Number of distinct ids for which the flag was enabled, including those with a variant
+ * @param disabled Number of distinct ids for which the flag was conclusively disabled
+ * @param inconclusive Number of distinct ids which could not be evaluated locally
+ * @param variants Number of distinct ids assigned to each variant
+ */
+public record FeatureFlagDistribution(
+        @NotNull String key, long total, long enabled, long disabled, long inconclusive,
+        @NotNull Map<String, Long> variants
+) {
+
+    static @NotNull FeatureFlagDistribution of(@NotNull String key, @NotNull Map<FeatureFlagState, LongAdder> counts) {
+        long total = 0, enabled = 0, disabled = 0, inconclusive = 0;
+        final Map<String, Long> variants = new HashMap<>();
+        for (final Map.Entry<FeatureFlagState, LongAdder> entry : counts.entrySet()) {
+            final FeatureFlagState state = entry.getKey();
+            final long count = entry.getValue().sum();
+            total += count;
+            if (state.isInconclusive()) inconclusive += count;
+            else if (!state.isEnabled()) disabled += count;
+            else {
+                enabled += count;
+                if (state.getVariant() != null) variants.merge(state.getVariant(), count, Long::sum);
+            }
+        }
+        return new FeatureFlagDistribution(key, total, enabled, disabled, inconclusive, Map.copyOf(variants));
+    }
+
+    /**
+     * Returns the fraction of distinct ids for which the flag was enabled, or zero if none were evaluated.
+     */
+    public double enabledRate() {
+        return total == 0 ? 0 : (double) enabled / total;
+    }
+
+    /**
+     * Returns the fraction of distinct ids assigned the given variant, or zero if none were evaluated.
+     */
+    public double variantRate(@NotNull String variant) {
+        return total == 0 ? 0 : (double) variants.getOrDefault(variant, 0L) / total;
+    }
+}
@@ -2,9 +2,10 @@ package net.hollowcube.posthog;
 
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import net.hollowcube.posthog.CompiledFlag.CompiledCondition;
+import net.hollowcube.posthog.CompiledFlag.CompiledProperty;
 import net.hollowcube.posthog.FeatureFlagsResponse.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
@@ -13,7 +14,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.regex.PatternSyntaxException;
 
 /**
  * Local feature flag evaluator.
@@ -21,58 +21,52 @@ import java.util.regex.PatternSyntaxException;
  * Heavily based on <a href="https://github.com/PostHog/posthog-go/blob/master/featureflags.go#L342">posthog-go</a>.
  */
 final class FeatureFlagEvaluator {
+    private static final FeatureFlagState GROUP_EVALUATION_UNSUPPORTED = new FeatureFlagState(false, null, "group evaluation not yet supported");
+    private static final FeatureFlagState COHORT_EVALUATION_UNSUPPORTED = new FeatureFlagState(false, null, "Cohort evaluation is not yet supported.");
+    // Shared by evaluations without person properties, never modified.
+    private static final JsonObject NO_PROPERTIES = new JsonObject();
 
+    @TestOnly
     static @NotNull FeatureFlagState evaluateFeatureFlag(@NotNull Gson gson, @NotNull Flag flag, @NotNull String distinctId, @NotNull FeatureFlagContext context) {
+        return evaluateFeatureFlag(gson, CompiledFlag.compile(flag), distinctId, context);
+    }
+
+    /**
+     * Evaluates the flag, returning one of the states prepared by the compiled flag (or a shared constant).
+     */
+    static @NotNull FeatureFlagState evaluateFeatureFlag(@NotNull Gson gson, @NotNull CompiledFlag compiled, @NotNull String distinctId, @NotNull FeatureFlagContext context) {
+        final Flag flag = compiled.flag();
         if (flag.ensureExperienceContinuity() != null && flag.ensureExperienceContinuity()) {
-            final String reason = "Feature flag " + flag.key() + " requires experience continuity, cannot be evaluated locally";
-            return new FeatureFlagState(false, null, reason);
+            return compiled.experienceContinuity();
         }
         if (!flag.active()) return FeatureFlagState.DISABLED;
 
-        final JsonObject personProperties = context.personProperties() == null ? new JsonObject() :
-                gson.toJsonTree(context.personProperties()).getAsJsonObject();
+        // Json properties (for example remembered ones) are only read, so they do not need to be copied.
+        final JsonObject personProperties = context.personProperties() == null ? NO_PROPERTIES
+                : context.personProperties() instanceof JsonObject object ? object
+                : gson.toJsonTree(context.personProperties()).getAsJsonObject();
         final Map<String, Object> cohorts = Map.of();
 
         if (flag.filters().aggregationGroupTypeIndex() != null) {
-            return new FeatureFlagState(false, null, "group evaluation not yet supported"); // TODO
+            return GROUP_EVALUATION_UNSUPPORTED; // TODO
         }
 
-        return matchFeatureFlagProperties(flag, distinctId, personProperties, cohorts);
+        return matchFeatureFlagProperties(compiled, distinctId, personProperties, context.completePersonProperties(), cohorts);
     }
 
     private static @NotNull FeatureFlagState matchFeatureFlagProperties(
-            @NotNull Flag flag, @NotNull String distinctId,
-            @NotNull JsonObject personProperties, @NotNull Map<String, Object> cohorts
+            @NotNull CompiledFlag compiled, @NotNull String distinctId,
+            @NotNull JsonObject personProperties, boolean completePersonProperties,
+            @NotNull Map<String, Object> cohorts
     ) {
-        // Stable sort conditions with variant overrides to the top. This ensures that if overrides are present,
-        // they are evaluated first, and the variant override is applied to the first matching condition.
-        final List<Condition> conditions = new ArrayList<>(flag.filters().groups());
-        conditions.sort((a, b) -> {
-            int left = 1, right = 1;
-            if (a.variant() != null)
-                left = -1;
-            if (b.variant() != null)
-                right = -1;
-            return left - right;
-        });
-
         FeatureFlagState fallthrough = FeatureFlagState.DISABLED;
-        for (final Condition condition : conditions) {
-            final FeatureFlagState match = isConditionMatch(flag, distinctId, condition, personProperties, cohorts);
+        for (final CompiledCondition condition : compiled.conditions()) {
+            final FeatureFlagState match = isConditionMatch(compiled, distinctId, condition, personProperties, completePersonProperties, cohorts);
             if (match.isInconclusive()) fallthrough = match;
 
             if (match.isEnabled()) {
-                final String variantOverride = condition.variant();
-                final Variants multivariates = flag.filters().multivariate();
-
-                if (variantOverride != null && multivariates != null && containsVariant(multivariates, variantOverride)) {
-                    return new FeatureFlagState(true, variantOverride, null);
-                }
-
-                final FeatureFlagState result = getMatchingVariant(flag, distinctId);
-                final String payload = flag.filters().payloads().get(Objects.requireNonNullElse(result.getVariant(), String.valueOf(result.isEnabled())));
-                if (payload != null) return new FeatureFlagState(result, payload);
-                return result;
+                if (condition.override() != null) return condition.override();
+                return getMatchingVariant(compiled, distinctId);
             }
         }
 
@@ -80,17 +74,15 @@ final class FeatureFlagEvaluator {
     }
 
     private static @NotNull FeatureFlagState isConditionMatch(
-            @NotNull Flag flag, @NotNull String distinctId, @NotNull Condition condition,
-            @NotNull JsonObject personProperties, @NotNull Map<String, Object> cohorts
+            @NotNull CompiledFlag compiled, @NotNull String distinctId, @NotNull CompiledCondition condition,
+            @NotNull JsonObject personProperties, boolean completePersonProperties,
+            @NotNull Map<String, Object> cohorts
     ) {
-        final List<Property> properties = condition.properties();
-        if (properties != null && !condition.properties().isEmpty()) {
-            for (final Property property : properties) {
-                final FeatureFlagState match = "cohort".equals(property.type())
-                        ? matchCohort(property, personProperties, cohorts)
-                        : matchProperty(property, personProperties);
-                if (!match.isEnabled()) return match;
-            }
+        for (final CompiledProperty property : condition.properties()) {
+            final FeatureFlagState match = "cohort".equals(property.property().type())
+                    ? matchCohort(property, personProperties, cohorts)
+                    : matchProperty(property, personProperties, completePersonProperties);
+            if (!match.isEnabled()) return match;
         }
 
         // Note to future readers. We notably diverge from posthog-go and posthog-node here. Those clients do not make
@@ -98,90 +90,63 @@ final class FeatureFlagEvaluator {
         // I'm not sure why they do it the way they do, but I'm pretty sure it's wrong.
         // https://github.com/PostHog/posthog-go/blob/ec95a60c64b0dd335dafa5c72e8a56c4edc0dbbd/featureflags.go#L503
         // https://github.com/PostHog/posthog-js-lite/blob/ac83f9a98806e7a4c2c32d38ea874cc31c41c645/posthog-node/src/feature-flags.ts#L330
-        if (condition.rolloutPercentage() != null) {
-            return checkIfSimpleFlagEnabled(flag.key(), distinctId, condition.rolloutPercentage());
+        final Integer rolloutPercentage = condition.condition().rolloutPercentage();
+        if (rolloutPercentage != null) {
+            return checkIfSimpleFlagEnabled(compiled.key(), distinctId, rolloutPercentage);
         }
 
         return FeatureFlagState.ENABLED;
     }
 
-    private static @NotNull FeatureFlagState matchCohort(@NotNull Property property, @NotNull JsonObject personProperties, @NotNull Map<String, Object> cohorts) {
-        return new FeatureFlagState(false, null, "Cohort evaluation is not yet supported."); // TODO
+    private static @NotNull FeatureFlagState matchCohort(@NotNull CompiledProperty property, @NotNull JsonObject personProperties, @NotNull Map<String, Object> cohorts) {
+        return COHORT_EVALUATION_UNSUPPORTED; // TODO
     }
 
     @TestOnly
-    static @NotNull FeatureFlagState matchProperty(@NotNull Property property, @NotNull JsonObject personProperties) {
-        if (!personProperties.has(property.key())) {
-            final String reason = String.format("Cannot match against property without a given value (%s)", property.key());
-            return new FeatureFlagState(false, null, reason);
+    static @NotNull FeatureFlagState matchProperty(@NotNull Property property, @NotNull JsonObject personProperties, boolean completePersonProperties) {
+        return matchProperty(CompiledProperty.compile(property), personProperties, completePersonProperties);
+    }
+
+    private static @NotNull FeatureFlagState matchProperty(
+            @NotNull CompiledProperty compiled, @NotNull JsonObject personProperties,
+            boolean completePersonProperties
+    ) {
+        final Property property = compiled.property();
+        final JsonElement personValue = personProperties.get(property.key());
+
+        final FeatureFlagState match;
+        if (personValue != null) {
+            match = compiled.matcher().match(personValue);
+        } else if (completePersonProperties && "is_not_set".equals(property.operator())) {
+            // Only known to be unset if the caller declared the properties complete, otherwise it may just not be given.
+            match = FeatureFlagState.ENABLED;
+        } else {
+            return compiled.missing();
         }
 
-        final var propertyValue = property.value();
-        final var personValue = personProperties.get(property.key());
-        return switch (property.operator()) {
-            case "is_not_set" -> new FeatureFlagState(false, null, "Cannot match is_not_set operator");
-            case "exact" -> new FeatureFlagState(propertyValue.isJsonArray()
-                    ? contains(propertyValue.getAsJsonArray(), personValue)
-                    : propertyValue.equals(personValue));
-            case "is_not" -> new FeatureFlagState(propertyValue.isJsonArray()
-                    ? !contains(propertyValue.getAsJsonArray(), personValue)
-                    : !propertyValue.equals(personValue));
-            case "is_set" -> FeatureFlagState.ENABLED;
-            case "icontains" -> new FeatureFlagState(valueAsString(personValue).toLowerCase(Locale.ROOT)
-                    .contains(valueAsString(propertyValue).toLowerCase(Locale.ROOT)));
-            case "not_icontains" -> new FeatureFlagState(!valueAsString(personValue).toLowerCase(Locale.ROOT)
-                    .contains(valueAsString(propertyValue).toLowerCase(Locale.ROOT)));
-            case "regex" -> {
-                try {
-                    yield new FeatureFlagState(valueAsString(personValue).matches(valueAsString(propertyValue)));
-                } catch (PatternSyntaxException ignored) {
-                    yield FeatureFlagState.DISABLED;
-                }
-            }
-            case "not_regex" -> {
-                try {
-                    yield new FeatureFlagState(!valueAsString(personValue).matches(valueAsString(propertyValue)));
-                } catch (PatternSyntaxException ignored) {
-                    yield FeatureFlagState.DISABLED;
-                }
-            }
-            case "gt" ->
-                    new FeatureFlagState(valueAsNumber(personValue).doubleValue() > valueAsNumber(propertyValue).doubleValue());
-            case "lt" ->
-                    new FeatureFlagState(valueAsNumber(personValue).doubleValue() < valueAsNumber(propertyValue).doubleValue());
-            case "gte" ->
-                    new FeatureFlagState(valueAsNumber(personValue).doubleValue() >= valueAsNumber(propertyValue).doubleValue());
-            case "lte" ->
-                    new FeatureFlagState(valueAsNumber(personValue).doubleValue() <= valueAsNumber(propertyValue).doubleValue());
-            default -> new FeatureFlagState(false, null, "Unknown operator: " + property.operator());
-        };
+        if (property.negation() && !match.isInconclusive())
+            return FeatureFlagState.of(!match.isEnabled());
+        return match;
     }
 
-    private static @NotNull FeatureFlagState getMatchingVariant(@NotNull Flag flag, @NotNull String distinctId) {
-        final Variants multivariates = flag.filters().multivariate();
+    private static @NotNull FeatureFlagState getMatchingVariant(@NotNull CompiledFlag compiled, @NotNull String distinctId) {
+        final Variants multivariates = compiled.flag().filters().multivariate();
         if (multivariates == null || multivariates.variants() == null) {
-            return FeatureFlagState.ENABLED;
+            return compiled.enabled();
         }
 
-        double value = hash(flag.key(), distinctId, "variant"), valueMin = 0;
-        for (final Variant variant : multivariates.variants()) {
+        final List<Variant> variants = multivariates.variants();
+        double value = hash(compiled.key(), distinctId, "variant"), valueMin = 0;
+        for (int i = 0; i < variants.size(); i++) {
+            final Variant variant = variants.get(i);
             if (variant.rolloutPercentage() == null) continue;
             double valueMax = valueMin + (variant.rolloutPercentage() / 100.0);
             if (value >= valueMin && value < valueMax)
-                return new FeatureFlagState(true, variant.key(), null);
+                return compiled.variant(i);
             valueMin = valueMax;
         }
 
-        return FeatureFlagState.ENABLED;
-    }
-
-    private static boolean containsVariant(@NotNull Variants variants, @NotNull String variant) {
-        if (variants.variants() == null || variants.variants().isEmpty())
-            return false;
-        for (final var v : variants.variants())
-            if (v.key().equals(variant))
-                return true;
-        return false;
+        return compiled.enabled();
     }
 
     private static @NotNull FeatureFlagState checkIfSimpleFlagEnabled(@NotNull String key, @NotNull String distinctId, int rolloutPercentage) {
@@ -196,34 +161,15 @@ final class FeatureFlagEvaluator {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             md.update((key + "." + distinctId + salt).getBytes(StandardCharsets.UTF_8));
             byte[] digest = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) sb.append(String.format("%02x", b));
-            var hexString = sb.substring(0, Math.min(15, sb.length()));
-            return ((double) Long.parseLong(hexString, 16)) / 0xfffffffffffffffL;
+            // The first 15 hex digits of the digest, ie its leading 60 bits.
+            long value = 0;
+            for (int i = 0; i < 8; i++) value = (value << 8) | (digest[i] & 0xff);
+            return ((double) (value >>> 4)) / 0xfffffffffffffffL;
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e); // Unreachable
         }
     }
 
-    private static boolean contains(@NotNull JsonArray array, @NotNull JsonElement elem) {
-        for (final var e : array)
-            if (e.equals(elem))
-                return true;
-        return false;
-    }
-
-    private static @NotNull String valueAsString(@NotNull JsonElement elem) {
-        if (elem.isJsonPrimitive()) return elem.getAsString();
-        if (elem.isJsonNull()) return "null";
-        throw new IllegalArgumentException("Cannot convert " + elem + " to string");
-    }
-
-    private static @NotNull Number valueAsNumber(@NotNull JsonElement elem) {
-        if (elem.isJsonPrimitive()) return elem.getAsNumber();
-        if (elem.isJsonNull()) return 0;
-        throw new IllegalArgumentException("Cannot convert " + elem + " to number");
-    }
-
     private FeatureFlagEvaluator() {
     }
 
@@ -0,0 +1,56 @@
+package net.hollowcube.posthog;
+
+import net.hollowcube.posthog.FeatureFlagsResponse.Flag;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable, versioned set of local feature flag definitions.
+ *
+ * @param version Increases by one each time the definitions change, starting at 1
+ * @param flags Compiled flag definitions by key
+ * @param index Ordinals of the flag keys, shared by all {@link FeatureFlagStates} evaluated from this snapshot
+ * @param ordered Compiled flag definitions by ordinal
+ * @param contentHash Hash of the payload the flags were parsed from, used to detect unchanged payloads
+ */
+record FeatureFlagSnapshot(
+        long version,
+        @NotNull Map<String, CompiledFlag> flags,
+        @NotNull FlagIndex index,
+        @NotNull List<CompiledFlag> ordered,
+        byte @NotNull [] contentHash
+) {
+
+    static @NotNull FeatureFlagSnapshot compile(long version, @NotNull Collection<Flag> flags, byte @NotNull [] contentHash) {
+        final Map<String, CompiledFlag> compiled = new HashMap<>();
+        for (final Flag flag : flags) compiled.put(flag.key(), CompiledFlag.compile(flag));
+
+        final FlagIndex index = FlagIndex.build(compiled.keySet());
+        final CompiledFlag[] ordered = new CompiledFlag[index.size()];
+        for (final CompiledFlag flag : compiled.values()) ordered[index.ordinal(flag.key())] = flag;
+        return new FeatureFlagSnapshot(version, Map.copyOf(compiled), index, List.of(ordered), contentHash);
+    }
+
+    @NotNull FeatureFlagChanges diff(@Nullable FeatureFlagSnapshot previous) {
+        final Map<String, CompiledFlag> previousFlags = previous != null ? previous.flags : Map.of();
+
+        final Set<String> added = new HashSet<>(), changed = new HashSet<>();
+        for (final Map.Entry<String, CompiledFlag> entry : flags.entrySet()) {
+            final CompiledFlag previousFlag = previousFlags.get(entry.getKey());
+            if (previousFlag == null) added.add(entry.getKey());
+            else if (!Objects.equals(previousFlag.flag(), entry.getValue().flag())) changed.add(entry.getKey());
+        }
+        final Set<String> removed = new HashSet<>(previousFlags.keySet());
+        removed.removeAll(flags.keySet());
+
+        return new FeatureFlagChanges(version, Set.copyOf(added), Set.copyOf(removed), Set.copyOf(changed));
+    }
+}
@@ -10,14 +10,15 @@ public final class FeatureFlagState {
     public static final FeatureFlagState DISABLED = new FeatureFlagState(false, null, null);
 
     public static final FeatureFlagState REMOTE_EVAL_NOT_ALLOWED = new FeatureFlagState(false, null, "remote evaluation is not allowed");
+    public static final FeatureFlagState REMOTE_EVAL_UNAVAILABLE = new FeatureFlagState(false, null, "remote evaluation is unavailable");
 
     private final boolean enabled;
     private final String variant;
     private final String payload;
     private final String inconclusiveReason;
 
-    FeatureFlagState(boolean enabled) {
-        this(enabled, null, null);
+    static @NotNull FeatureFlagState of(boolean enabled) {
+        return enabled ? ENABLED : DISABLED;
     }
 
     FeatureFlagState(boolean enabled, @Nullable String variant, @Nullable String inconclusiveReason) {
@@ -79,6 +80,13 @@ public final class FeatureFlagState {
         return this.inconclusiveReason != null;
     }
 
+    /**
+     * Returns the reason the feature flag could not be evaluated, or null if the result is conclusive.
+     */
+    public @Nullable String getInconclusiveReason() {
+        return this.inconclusiveReason;
+    }
+
     @Override
     public String toString() {
         if (inconclusiveReason != null) {
@@ -3,20 +3,46 @@ package net.hollowcube.posthog;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 public class FeatureFlagStates {
-    public static final FeatureFlagStates EMPTY = new FeatureFlagStates(Map.of());
+    public static final FeatureFlagStates EMPTY = new FeatureFlagStates(FlagIndex.EMPTY, new FeatureFlagState[0]);
 
-    private final Map<String, FeatureFlagState> states;
+    // Local results are stored by ordinal of the snapshot index, a null state means the flag was not evaluated.
+    // Remote results only hold a few flags, so they are stored in a map instead of building an index for them.
+    private final FlagIndex index;
+    private final FeatureFlagState[] states;
+    private final Map<String, FeatureFlagState> map;
 
-    FeatureFlagStates(@NotNull Map<String, FeatureFlagState> states) {
+    private Map<String, FeatureFlagState> statesMap = null; // Lazily created from the index
+
+    FeatureFlagStates(@NotNull FlagIndex index, @Nullable FeatureFlagState @NotNull [] states) {
+        this.index = index;
         this.states = states;
+        this.map = null;
+    }
+
+    /**
+     * Creates map backed states, the map is used as is and must not be modified afterward.
+     */
+    FeatureFlagStates(@NotNull Map<String, FeatureFlagState> states) {
+        this.index = null;
+        this.states = null;
+        this.map = Collections.unmodifiableMap(states);
     }
 
     public @NotNull FeatureFlagState get(@NotNull String key) {
-        return states.getOrDefault(key, FeatureFlagState.DISABLED);
+        final FeatureFlagState state;
+        if (map != null) {
+            state = map.get(key);
+        } else {
+            final int ordinal = index.ordinal(key);
+            state = ordinal != -1 ? states[ordinal] : null;
+        }
+        return state != null ? state : FeatureFlagState.DISABLED;
     }
 
     public boolean isEnabled(@NotNull String key) {
@@ -28,15 +54,28 @@ public class FeatureFlagStates {
     }
 
     public @NotNull Set<String> keySet() {
-        return states.keySet();
+        return getStates().keySet();
     }
 
+    /**
+     * Returns the states as an unmodifiable map. The map is created on first use.
+     */
     public @NotNull Map<String, FeatureFlagState> getStates() {
-        return states;
+        if (map != null) return map;
+        // Benign race, at worst the map is created more than once.
+        Map<String, FeatureFlagState> result = statesMap;
+        if (result == null) {
+            final Map<String, FeatureFlagState> map = new LinkedHashMap<>();
+            for (int i = 0; i < states.length; i++) {
+                if (states[i] != null) map.put(index.key(i), states[i]);
+            }
+            statesMap = result = Collections.unmodifiableMap(map);
+        }
+        return result;
     }
 
     @Override
     public String toString() {
-        return states.toString();
+        return getStates().toString();
     }
 }
@@ -0,0 +1,72 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point in time evaluation statistics for a single feature flag.
+ *
+ * @param key The feature flag key
+ * @param localEvaluations Number of times the flag was evaluated locally (including cached results)
+ * @param inconclusiveReasons Number of inconclusive local results by reason
+ * @param remoteFallbacks Number of times the flag required remote evaluation
+ * @param remoteErrors Number of remote evaluations which failed, timed out or were rejected by the budget
+ * @param latencyHistogram Number of {@code getFeatureFlag} calls by latency bucket, including remote evaluation.
+ *                         See {@link #latencyBucketUpperBound(int)} for the bucket bounds.
+ */
+public record FeatureFlagStats(
+        @NotNull String key,
+        long localEvaluations,
+        @NotNull Map<String, Long> inconclusiveReasons,
+        long remoteFallbacks,
+        long remoteErrors,
+        @NotNull List<Long> latencyHistogram
+) {
+    /**
+     * The key under which evaluations of flags missing from the current flag definitions are counted, so that
+     * arbitrary keys passed to {@code getFeatureFlag} do not each get their own statistics.
+     */
+    public static final String UNKNOWN_FLAG = "$unknown";
+
+    /**
+     * The number of latency buckets. Bucket {@code i} counts calls taking less than {@code 2^i} microseconds
+     * (and at least {@code 2^(i-1)}), except the last bucket which counts all slower calls.
+     */
+    public static final int LATENCY_BUCKETS = 25;
+
+    /**
+     * Returns the exclusive upper bound of the given latency bucket, or null for the last (unbounded) bucket.
+     */
+    public static @Nullable Duration latencyBucketUpperBound(int bucket) {
+        if (bucket < 0 || bucket >= LATENCY_BUCKETS)
+            throw new IllegalArgumentException("Invalid bucket: " + bucket);
+        return bucket == LATENCY_BUCKETS - 1 ? null : Duration.ofNanos(1000L << bucket);
+    }
+
+    static int latencyBucket(long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);
+    }
+
+    /**
+     * Returns the upper bound of the latency bucket containing the given percentile (0-1) of calls, or null if
+     * there have been no calls or it falls in the last bucket.
+     */
+    public @Nullable Duration latencyPercentile(double percentile) {
+        long total = 0;
+        for (final long count : latencyHistogram) total += count;
+        if (total == 0) return null;
+
+        final long target = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < latencyHistogram.size(); i++) {
+            seen += latencyHistogram.get(i);
+            if (seen >= target) return latencyBucketUpperBound(i);
+        }
+        return null;
+    }
+}
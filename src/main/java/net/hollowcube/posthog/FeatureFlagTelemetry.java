@@ -0,0 +1,70 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per flag evaluation counters. All counters are {@link LongAdder}s so that concurrent evaluations of the
+ * same flag do not contend on a single value.
+ */
+final class FeatureFlagTelemetry {
+
+    private static final class Counters {
+        private final LongAdder localEvaluations = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> inconclusiveReasons = new ConcurrentHashMap<>();
+        private final LongAdder remoteFallbacks = new LongAdder();
+        private final LongAdder remoteErrors = new LongAdder();
+        private final LongAdder[] latency = new LongAdder[FeatureFlagStats.LATENCY_BUCKETS];
+
+        private Counters() {
+            for (int i = 0; i < latency.length; i++) latency[i] = new LongAdder();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Counters> flags = new ConcurrentHashMap<>();
+
+    void recordLocal(@NotNull String key, @NotNull FeatureFlagState state) {
+        final Counters counters = counters(key);
+        counters.localEvaluations.increment();
+        final String reason = state.getInconclusiveReason();
+        if (reason != null) counters.inconclusiveReasons.computeIfAbsent(reason, ignored -> new LongAdder()).increment();
+    }
+
+    void recordRemoteFallback(@NotNull String key) {
+        counters(key).remoteFallbacks.increment();
+    }
+
+    void recordRemoteError(@NotNull String key) {
+        counters(key).remoteErrors.increment();
+    }
+
+    void recordLatency(@NotNull String key, long nanos) {
+        counters(key).latency[FeatureFlagStats.latencyBucket(nanos)].increment();
+    }
+
+    @NotNull Map<String, FeatureFlagStats> stats() {
+        final Map<String, FeatureFlagStats> result = new HashMap<>();
+        this.flags.forEach((key, counters) -> {
+            final Map<String, Long> reasons = new HashMap<>();
+            counters.inconclusiveReasons.forEach((reason, count) -> reasons.put(reason, count.sum()));
+            final List<Long> latency = new ArrayList<>(counters.latency.length);
+            for (final LongAdder bucket : counters.latency) latency.add(bucket.sum());
+            result.put(key, new FeatureFlagStats(key, counters.localEvaluations.sum(), Map.copyOf(reasons),
+                    counters.remoteFallbacks.sum(), counters.remoteErrors.sum(), List.copyOf(latency)));
+        });
+        return Map.copyOf(result);
+    }
+
+    private @NotNull Counters counters(@NotNull String key) {
+        // Avoid the lock in computeIfAbsent for the common case where the flag already has counters.
+        final Counters counters = this.flags.get(key);
+        if (counters != null) return counters;
+        return this.flags.computeIfAbsent(key, ignored -> new Counters());
+    }
+}
@@ -0,0 +1,39 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Callable;
+
+/**
+ * A local evaluation payload applied when the client is created.
+ *
+ * @param payload Opens the payload, which is closed by the caller
+ * @param fetchedAt Returns the time the payload was fetched from PostHog, used to report the age of the
+ *                  definitions. Sources without a known fetch time use {@link Instant#EPOCH}, so they
+ *                  are treated as stale until the first successful fetch.
+ */
+record FeatureFlagsBootstrap(@NotNull Callable<InputStream> payload, @NotNull Callable<Instant> fetchedAt) {
+
+    static @NotNull FeatureFlagsBootstrap file(@NotNull Path file) {
+        return new FeatureFlagsBootstrap(() -> Files.newInputStream(file),
+                () -> Files.getLastModifiedTime(file).toInstant());
+    }
+
+    static @NotNull FeatureFlagsBootstrap bytes(byte @NotNull [] payload) {
+        return new FeatureFlagsBootstrap(() -> new ByteArrayInputStream(payload), () -> Instant.EPOCH);
+    }
+
+    static @NotNull FeatureFlagsBootstrap resource(@NotNull String resourceName) {
+        return new FeatureFlagsBootstrap(() -> {
+            final InputStream resource = FeatureFlagsBootstrap.class.getClassLoader().getResourceAsStream(resourceName);
+            if (resource == null) throw new FileNotFoundException("resource not found: " + resourceName);
+            return resource;
+        }, () -> Instant.EPOCH);
+    }
+}
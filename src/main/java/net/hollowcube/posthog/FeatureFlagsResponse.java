@@ -1,13 +1,17 @@
 package net.hollowcube.posthog;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 record FeatureFlagsResponse(
         @NotNull List<Flag> flags,
@@ -16,6 +20,27 @@ record FeatureFlagsResponse(
         @NotNull Map<String, JsonObject> cohorts
 ) {
 
+    /**
+     * Reads the flags from a local evaluation payload one at a time, so that only a single flag is held
+     * in memory at once. Other top level fields are skipped.
+     */
+    static void readFlags(@NotNull Gson gson, @NotNull JsonReader reader, @NotNull Consumer<Flag> consumer) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"flags".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                consumer.accept(gson.fromJson(reader, Flag.class));
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
     record Flag(
             @NotNull String key,
             @SerializedName("is_simple_flag")
@@ -61,7 +86,7 @@ record FeatureFlagsResponse(
 
     record Property(
             @NotNull String key,
-            @NotNull String operator,
+            @Nullable String operator, // Not set for cohort filters
             @NotNull JsonElement value,
             @NotNull String type,
             boolean negation
@@ -0,0 +1,111 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.Blocking;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+
+/**
+ * Loads definitions from a file, watching its directory for changes.
+ *
+ * <p>The file is loaded on the thread calling {@link #start(Sink)}, so definitions are available as soon as the
+ * client is created. Changes are then picked up by a virtual thread blocked on a {@link WatchService}.</p>
+ */
+final class FileFeatureFlagDefinitionSource implements FeatureFlagDefinitionSource {
+    private static final Logger log = LoggerFactory.getLogger(FileFeatureFlagDefinitionSource.class);
+
+    private final Path file;
+    private final Object lock = new Object(); // Serializes loads from the watcher and reload()
+
+    private volatile WatchService watchService = null;
+    private volatile Sink sink = null;
+
+    FileFeatureFlagDefinitionSource(@NotNull Path file) {
+        this.file = Objects.requireNonNull(file).toAbsolutePath();
+    }
+
+    @Override
+    public void start(@NotNull Sink sink) {
+        if (this.sink != null) throw new IllegalStateException("Source already started");
+        this.sink = Objects.requireNonNull(sink);
+
+        // Register before the first load so that a change in between is not missed.
+        try {
+            final Path directory = Objects.requireNonNull(file.getParent());
+            this.watchService = directory.getFileSystem().newWatchService();
+            directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.error("failed to watch {} for feature flag changes, it will only be loaded on reload", file, e);
+        }
+
+        load();
+        if (this.watchService != null) Thread.startVirtualThread(this::watchLoop);
+    }
+
+    @Override
+    public void reload() {
+        if (this.sink == null) throw new IllegalStateException("Source not started");
+        Thread.startVirtualThread(this::load);
+    }
+
+    @Override
+    public void close() {
+        final WatchService watchService = this.watchService;
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("failed to close feature flag file watcher", e);
+        }
+    }
+
+    private void watchLoop() {
+        final WatchService watchService = this.watchService;
+        final Path fileName = file.getFileName();
+        while (true) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException | InterruptedException ignored) {
+                return;
+            }
+
+            boolean changed = false;
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                // Events may have been lost on overflow, so assume the file changed.
+                changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+            }
+            if (changed) load();
+            if (!key.reset()) {
+                log.error("stopped watching {} for feature flag changes, its directory is no longer accessible", file);
+                return;
+            }
+        }
+    }
+
+    @Blocking
+    private void load() {
+        synchronized (lock) {
+            try (InputStream payload = Files.newInputStream(file)) {
+                if (sink.accept(payload, Files.getLastModifiedTime(file).toInstant()))
+                    log.debug("loaded feature flags from {}", file);
+            } catch (NoSuchFileException ignored) {
+                log.debug("feature flag file {} does not exist yet", file);
+            } catch (Exception e) {
+                log.error("failed to load feature flags from {}", file, e);
+            }
+        }
+    }
+}
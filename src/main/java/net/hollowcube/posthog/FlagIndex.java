@@ -0,0 +1,144 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable mapping of a fixed set of flag keys to dense ordinals in {@code [0, size)}.
+ *
+ * <p>Built once per set of keys (ie per snapshot or /decide response) so that per evaluation results can be
+ * stored in a plain array indexed by ordinal. Lookups use a minimal perfect hash built with the hash and
+ * displace (CHD) scheme: keys are split into small buckets, and each bucket is assigned a seed such that
+ * all of its keys land on free slots. A lookup is one string hash, one seed read, and one equality check
+ * against the stored key to reject keys outside the set.</p>
+ */
+final class FlagIndex {
+    static final FlagIndex EMPTY = build(List.of());
+
+    private static final int KEYS_PER_BUCKET = 4;
+    private static final int MAX_SEED = 1 << 20;
+
+    private final String[] keys; // By ordinal
+    private final int[] seeds; // By bucket
+    private final long salt;
+
+    private FlagIndex(@NotNull String[] keys, int[] seeds, long salt) {
+        this.keys = keys;
+        this.seeds = seeds;
+        this.salt = salt;
+    }
+
+    /**
+     * Builds an index for the given keys, which must be distinct. Ordinals depend only on the set of keys.
+     */
+    static @NotNull FlagIndex build(@NotNull Collection<String> keys) {
+        final String[] input = keys.toArray(new String[0]);
+        // Sorting makes the ordinals independent of iteration order, and lets us detect duplicates.
+        Arrays.sort(input);
+        for (int i = 1; i < input.length; i++) {
+            if (input[i].equals(input[i - 1]))
+                throw new IllegalArgumentException("Duplicate flag key: " + input[i]);
+        }
+
+        for (long salt = 0; ; salt++) {
+            final FlagIndex index = tryBuild(input, salt);
+            if (index != null) return index;
+        }
+    }
+
+    private static FlagIndex tryBuild(@NotNull String[] input, long salt) {
+        final int size = input.length;
+        final int bucketCount = Math.max(1, (size + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+
+        final long[] hashes = new long[size];
+        final List<List<Integer>> buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) buckets.add(new ArrayList<>(KEYS_PER_BUCKET));
+        for (int i = 0; i < size; i++) {
+            hashes[i] = hash(input[i], salt);
+            buckets.get(bucket(hashes[i], bucketCount)).add(i);
+        }
+
+        // Place the largest buckets first while the table is mostly empty.
+        final Integer[] order = new Integer[bucketCount];
+        for (int i = 0; i < bucketCount; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(buckets.get(b).size(), buckets.get(a).size()));
+
+        final String[] keys = new String[size];
+        final int[] seeds = new int[bucketCount];
+        final int[] slots = new int[KEYS_PER_BUCKET * 4];
+        for (final int bucketIndex : order) {
+            final List<Integer> bucket = buckets.get(bucketIndex);
+            if (bucket.isEmpty()) break; // Sorted by size, so the rest are empty too.
+            if (bucket.size() > slots.length) return null; // Pathological distribution, try another salt
+
+            int seed = 0;
+            search:
+            for (; seed < MAX_SEED; seed++) {
+                for (int i = 0; i < bucket.size(); i++) {
+                    final int slot = slot(hashes[bucket.get(i)], seed, size);
+                    if (keys[slot] != null) continue search;
+                    for (int j = 0; j < i; j++)
+                        if (slots[j] == slot) continue search;
+                    slots[i] = slot;
+                }
+                break;
+            }
+            if (seed == MAX_SEED) return null;
+
+            seeds[bucketIndex] = seed;
+            for (int i = 0; i < bucket.size(); i++)
+                keys[slots[i]] = input[bucket.get(i)];
+        }
+
+        return new FlagIndex(keys, seeds, salt);
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the ordinal of the given key, or -1 if it is not part of this index.
+     */
+    int ordinal(@NotNull String key) {
+        if (keys.length == 0) return -1;
+        final long hash = hash(key, salt);
+        final int slot = slot(hash, seeds[bucket(hash, seeds.length)], keys.length);
+        return keys[slot].equals(key) ? slot : -1;
+    }
+
+    @NotNull String key(int ordinal) {
+        return keys[ordinal];
+    }
+
+    private static int bucket(long hash, int bucketCount) {
+        return (int) (((hash & 0xffffffffL) * bucketCount) >>> 32);
+    }
+
+    private static int slot(long hash, int seed, int size) {
+        final long mixed = mix(hash + seed * 0x9e3779b97f4a7c15L);
+        return (int) (((mixed >>> 32) * size) >>> 32);
+    }
+
+    // FNV-1a 64 bit seeded with the salt, followed by a murmur3 finalizer.
+    private static long hash(@NotNull String key, long salt) {
+        long hash = 0xcbf29ce484222325L ^ salt;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
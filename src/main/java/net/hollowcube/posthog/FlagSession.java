@@ -0,0 +1,58 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Memoized feature flag results for one distinct id, for the duration of a
+ * {@link PostHogClient#withFlagSession(String, FeatureFlagContext, Runnable)} call.
+ *
+ * <p>Sessions are bound to the thread which opened them, so they are not synchronized.</p>
+ */
+final class FlagSession {
+    private final String distinctId;
+    private final FeatureFlagContext givenContext; // As passed to withFlagSession, null if none
+    private final FeatureFlagContext resolvedContext;
+
+    private final Map<String, CompletableFuture<FeatureFlagState>> flags = new HashMap<>();
+    private CompletableFuture<FeatureFlagStates> allFlags = null;
+
+    FlagSession(@NotNull String distinctId, @Nullable FeatureFlagContext givenContext, @NotNull FeatureFlagContext resolvedContext) {
+        this.distinctId = distinctId;
+        this.givenContext = givenContext;
+        this.resolvedContext = resolvedContext;
+    }
+
+    /**
+     * Returns true if a call for the distinct id and context can be answered by this session. Calls without a
+     * context use the session's context.
+     */
+    boolean matches(@NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        return this.distinctId.equals(distinctId) && (context == null || Objects.equals(context, givenContext));
+    }
+
+    @NotNull FeatureFlagContext context() {
+        return resolvedContext;
+    }
+
+    @Nullable CompletableFuture<FeatureFlagState> flag(@NotNull String key) {
+        return flags.get(key);
+    }
+
+    void putFlag(@NotNull String key, @NotNull CompletableFuture<FeatureFlagState> state) {
+        flags.put(key, state);
+    }
+
+    @Nullable CompletableFuture<FeatureFlagStates> allFlags() {
+        return allFlags;
+    }
+
+    void putAllFlags(@NotNull CompletableFuture<FeatureFlagStates> states) {
+        this.allFlags = states;
+    }
+}
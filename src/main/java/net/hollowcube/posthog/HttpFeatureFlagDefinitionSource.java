@@ -0,0 +1,137 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.Blocking;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Polls the {@code /api/feature_flag/local_evaluation} endpoint using a personal api key, the default source.
+ *
+ * <p>Requests are conditional on the validators of the last response, so unchanged definitions are not
+ * downloaded again by servers which support it. Responses are requested gzip compressed, and the snapshot
+ * file holds the decompressed payload.</p>
+ */
+final class HttpFeatureFlagDefinitionSource implements FeatureFlagDefinitionSource {
+    private static final Logger log = LoggerFactory.getLogger(HttpFeatureFlagDefinitionSource.class);
+
+    private final HttpClient httpClient;
+    private final String endpoint;
+    private final String personalApiKey;
+    private final Duration pollingInterval;
+    private final Duration requestTimeout;
+    private final Path snapshotFile; // Null if disabled
+
+    private Timer timer = null;
+    private Sink sink = null;
+    // Validators for conditional polling, only accessed from the timer.
+    private String etag = null;
+    private String lastModified = null;
+
+    HttpFeatureFlagDefinitionSource(
+            @NotNull HttpClient httpClient, @NotNull String endpoint, @NotNull String personalApiKey,
+            @NotNull Duration pollingInterval, @NotNull Duration requestTimeout, @Nullable Path snapshotFile
+    ) {
+        this.httpClient = httpClient;
+        this.endpoint = endpoint;
+        this.personalApiKey = personalApiKey;
+        this.pollingInterval = pollingInterval;
+        this.requestTimeout = requestTimeout;
+        this.snapshotFile = snapshotFile;
+    }
+
+    @Override
+    public void start(@NotNull Sink sink) {
+        if (this.timer != null) throw new IllegalStateException("Source already started");
+        this.sink = sink;
+        // The first fetch starts immediately on another thread.
+        this.timer = new Timer(this::load, pollingInterval);
+    }
+
+    @Override
+    public void reload() {
+        if (this.timer == null) throw new IllegalStateException("Source not started");
+        this.timer.wakeup();
+    }
+
+    @Override
+    public void close() {
+        if (this.timer != null) this.timer.close();
+    }
+
+    @Blocking
+    private void load() {
+        final HttpRequest.Builder reqBuilder = DecodingBodyHandler.acceptEncoding(HttpRequest.newBuilder(URI.create(String.format("%s/api/feature_flag/local_evaluation", endpoint))))
+                .header("Authorization", String.format("Bearer %s", this.personalApiKey))
+                .header("User-Agent", PostHogClientImpl.USER_AGENT)
+                .timeout(requestTimeout);
+        if (this.etag != null) reqBuilder.header("If-None-Match", this.etag);
+        if (this.lastModified != null) reqBuilder.header("If-Modified-Since", this.lastModified);
+        try {
+            final HttpResponse<InputStream> res = this.httpClient.send(reqBuilder.build(), DecodingBodyHandler.INSTANCE);
+            if (res.statusCode() == 304) {
+                res.body().close();
+                this.sink.unchanged(Instant.now());
+                log.debug("feature flags not modified since last fetch");
+                return;
+            }
+            if (res.statusCode() != 200) {
+                try (InputStream body = res.body()) {
+                    log.error("unexpected response from /api/feature_flag/local_evaluation ({}): {}",
+                            res.statusCode(), new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                return;
+            }
+
+            if (this.snapshotFile == null) {
+                try (InputStream body = res.body()) {
+                    this.sink.accept(body, Instant.now());
+                }
+            } else {
+                // Write the payload to disk first, then parse it from there and keep it for the next startup if it changed.
+                final Path tempFile = this.snapshotFile.resolveSibling(this.snapshotFile.getFileName() + ".tmp");
+                if (tempFile.getParent() != null) Files.createDirectories(tempFile.getParent());
+                try (InputStream body = res.body()) {
+                    Files.copy(body, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                final boolean changed;
+                try (InputStream payload = Files.newInputStream(tempFile)) {
+                    changed = this.sink.accept(payload, Instant.now());
+                }
+                try {
+                    if (changed || !Files.exists(this.snapshotFile)) {
+                        Files.move(tempFile, this.snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } else Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    log.warn("failed to persist feature flag snapshot to {}", this.snapshotFile, e);
+                }
+            }
+
+            this.etag = res.headers().firstValue("ETag").orElse(null);
+            this.lastModified = res.headers().firstValue("Last-Modified").orElse(null);
+        } catch (InterruptedException ignored) {
+            // Do nothing just exit
+        } catch (HttpTimeoutException e) {
+            log.warn("timed out making /api/feature_flag/local_evaluation request", e);
+        } catch (Exception e) {
+            // Catch everything because we do not want the timer itself to stop running.
+            log.error("failed to make /api/feature_flag/local_evaluation request", e);
+        }
+    }
+}
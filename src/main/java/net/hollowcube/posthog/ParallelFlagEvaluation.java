@@ -0,0 +1,94 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serial;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Evaluates a snapshot's flags on the common fork join pool by recursively splitting the flags by ordinal.
+ *
+ * <p>Each state is written to the slot of its ordinal, so the result is the same as evaluating sequentially.
+ * If {@code abortOnInconclusive} is set, the first inconclusive result stops any tasks which have not started
+ * their range yet. The states are then incomplete, but the caller discards them for a remote evaluation.</p>
+ */
+@SuppressWarnings("serial") // Serializable through ForkJoinTask, but never serialized
+final class ParallelFlagEvaluation extends RecursiveAction {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_SIZE = 64;
+
+    /**
+     * Evaluates a single flag, must be safe to call concurrently.
+     */
+    @FunctionalInterface
+    interface Evaluator {
+        @NotNull FeatureFlagState evaluate(@NotNull CompiledFlag flag, @NotNull String distinctId, @NotNull FeatureFlagContext context);
+    }
+
+    /**
+     * @return true if evaluation was aborted because of an inconclusive result
+     */
+    static boolean evaluate(
+            @NotNull Evaluator evaluator, @NotNull List<CompiledFlag> flags, @NotNull String distinctId,
+            @NotNull FeatureFlagContext context, @NotNull FeatureFlagState @NotNull [] states,
+            boolean abortOnInconclusive
+    ) {
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        ForkJoinPool.commonPool().invoke(new ParallelFlagEvaluation(evaluator, flags, distinctId, context,
+                states, abortOnInconclusive, aborted, 0, states.length));
+        return aborted.get();
+    }
+
+    private final Evaluator evaluator;
+    private final List<CompiledFlag> flags;
+    private final String distinctId;
+    private final FeatureFlagContext context;
+    private final FeatureFlagState[] states;
+    private final boolean abortOnInconclusive;
+    private final AtomicBoolean aborted;
+    private final int from, to;
+
+    private ParallelFlagEvaluation(
+            @NotNull Evaluator evaluator, @NotNull List<CompiledFlag> flags, @NotNull String distinctId,
+            @NotNull FeatureFlagContext context, @NotNull FeatureFlagState @NotNull [] states,
+            boolean abortOnInconclusive, @NotNull AtomicBoolean aborted, int from, int to
+    ) {
+        this.evaluator = evaluator;
+        this.flags = flags;
+        this.distinctId = distinctId;
+        this.context = context;
+        this.states = states;
+        this.abortOnInconclusive = abortOnInconclusive;
+        this.aborted = aborted;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (aborted.get()) return;
+
+        if (to - from > LEAF_SIZE) {
+            final int mid = (from + to) >>> 1;
+            invokeAll(split(from, mid), split(mid, to));
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+            final FeatureFlagState state = evaluator.evaluate(flags.get(i), distinctId, context);
+            states[i] = state;
+            if (abortOnInconclusive && state.isInconclusive()) {
+                aborted.set(true);
+                return;
+            }
+        }
+    }
+
+    private @NotNull ParallelFlagEvaluation split(int from, int to) {
+        return new ParallelFlagEvaluation(evaluator, flags, distinctId, context, states, abortOnInconclusive, aborted, from, to);
+    }
+}
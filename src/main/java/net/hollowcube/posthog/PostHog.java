@@ -7,6 +7,8 @@ import org.jetbrains.annotations.Nullable;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 public final class PostHog {
@@ -73,6 +75,20 @@ public final class PostHog {
         getClient().capture(distinctId, event, properties);
     }
 
+    /**
+     * Capture an event with the given name for the given ID with properties from the given object, optionally
+     * attaching the locally evaluated feature flags of the distinct ID.
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty.
+     * @param event Name of the event. May not be empty.
+     * @param properties Event object data
+     * @param sendFeatureFlags Whether to attach feature flags to the event
+     * @see PostHogClient#capture(String, String, Object, boolean)
+     */
+    public static void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties, boolean sendFeatureFlags) {
+        getClient().capture(distinctId, event, properties, sendFeatureFlags);
+    }
+
     /**
      * Link the given properties with the person profile of the user (distinct id).
      *
@@ -278,6 +294,92 @@ public final class PostHog {
         return getClient().getAllFeatureFlags(distinctId, context);
     }
 
+    /**
+     * Get the feature flag state for the given distinct ID without blocking the calling thread.
+     *
+     * @param key Feature flag key
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @return Future completed with the feature flag state
+     */
+    public static @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(@NotNull String key, @NotNull String distinctId) {
+        return getClient().getFeatureFlagAsync(key, distinctId);
+    }
+
+    /**
+     * Get the feature flag state for the given distinct ID with extra context without blocking the calling thread.
+     *
+     * @param key Feature flag key
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @param context Extra context to pass to the feature flag evaluation
+     * @return Future completed with the feature flag state
+     */
+    public static @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(@NotNull String key, @NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        return getClient().getFeatureFlagAsync(key, distinctId, context);
+    }
+
+    /**
+     * Get all feature flags for the given distinct ID without blocking the calling thread.
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @return Future completed with the feature flag states
+     */
+    public static @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(@NotNull String distinctId) {
+        return getClient().getAllFeatureFlagsAsync(distinctId);
+    }
+
+    /**
+     * Get all feature flags for the given distinct ID with extra context without blocking the calling thread.
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @param context Extra context to pass to the feature flag evaluation
+     * @return Future completed with the feature flag states
+     */
+    public static @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(@NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        return getClient().getAllFeatureFlagsAsync(distinctId, context);
+    }
+
+    /**
+     * Evaluates a single feature flag locally for each of the given distinct IDs, without sending events.
+     *
+     * @param key Feature flag key
+     * @param distinctIds The distinct IDs to evaluate, may be a lazy iterable
+     * @return The distribution of results
+     * @see PostHogClient#evaluateBulk(String, Iterable, Function, BiConsumer)
+     */
+    public static @NotNull FeatureFlagDistribution evaluateBulk(@NotNull String key, @NotNull Iterable<String> distinctIds) {
+        return getClient().evaluateBulk(key, distinctIds);
+    }
+
+    /**
+     * Evaluates a single feature flag locally for each of the given distinct IDs, without sending events.
+     *
+     * @param key Feature flag key
+     * @param distinctIds The distinct IDs to evaluate, may be a lazy iterable
+     * @param contextProvider Provides the context for each distinct ID, or null to use no context
+     * @param consumer Receives the state for each distinct ID, or null. Called concurrently from multiple threads
+     * @return The distribution of results
+     * @see PostHogClient#evaluateBulk(String, Iterable, Function, BiConsumer)
+     */
+    public static @NotNull FeatureFlagDistribution evaluateBulk(
+            @NotNull String key, @NotNull Iterable<String> distinctIds,
+            @Nullable Function<String, FeatureFlagContext> contextProvider,
+            @Nullable BiConsumer<String, FeatureFlagState> consumer
+    ) {
+        return getClient().evaluateBulk(key, distinctIds, contextProvider, consumer);
+    }
+
+    /**
+     * Runs the action with a flag session for the distinct ID, memoizing flag evaluations within it.
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @param context Extra context to pass to the feature flag evaluation, or null for none
+     * @param action The action to run
+     * @see PostHogClient#withFlagSession(String, FeatureFlagContext, Runnable)
+     */
+    public static void withFlagSession(@NotNull String distinctId, @Nullable FeatureFlagContext context, @NotNull Runnable action) {
+        getClient().withFlagSession(distinctId, context, action);
+    }
+
     /**
      * Triggers a full reload of all local feature flags from the remote server. Only valid when local evaluation
      * is enabled. This call does not block on the flush to be completed.
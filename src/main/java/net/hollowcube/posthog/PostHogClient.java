@@ -9,12 +9,16 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static net.hollowcube.posthog.PostHogNames.*;
 
@@ -75,7 +79,26 @@ public sealed interface PostHogClient permits PostHogClientImpl, PostHogClientNo
      * @param event Name of the event. May not be empty.
      * @param properties Event object data
      */
-    void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties);
+    default void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties) {
+        capture(distinctId, event, properties, false);
+    }
+
+    /**
+     * Capture an event with the given name for the given ID with properties from the given object, optionally
+     * attaching the feature flags of the distinct ID as {@code $feature/<key>} and {@code $active_feature_flags}
+     * properties.
+     *
+     * <p>Flags are evaluated locally when the event is sent, never remotely. Flags which cannot be evaluated locally
+     * use the last remote result for the distinct ID if it was evaluated recently, otherwise they are omitted.
+     * Remote results are only remembered after the first event which attaches feature flags. Properties already
+     * present on the event are not replaced.</p>
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty.
+     * @param event Name of the event. May not be empty.
+     * @param properties Event object data
+     * @param sendFeatureFlags Whether to attach feature flags to the event
+     */
+    void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties, boolean sendFeatureFlags);
 
     /**
      * Link the given properties with the person profile of the user (distinct id).
@@ -326,6 +349,113 @@ public sealed interface PostHogClient permits PostHogClientImpl, PostHogClientNo
      */
     @NotNull FeatureFlagStates getAllFeatureFlags(@NotNull String distinctId, @Nullable FeatureFlagContext context);
 
+    /**
+     * Get the feature flag state for the given distinct ID without blocking the calling thread.
+     *
+     * <p>The returned future is already complete if the flag could be evaluated locally.</p>
+     *
+     * @param key Feature flag key
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @return Future completed with the feature flag state
+     */
+    default @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(@NotNull String key, @NotNull String distinctId) {
+        return getFeatureFlagAsync(key, distinctId, null);
+    }
+
+    /**
+     * Get the feature flag state for the given distinct ID with extra context without blocking the calling thread.
+     *
+     * <p>The returned future is already complete if the flag could be evaluated locally.</p>
+     *
+     * @param key Feature flag key
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @param context Extra context to pass to the feature flag evaluation
+     * @return Future completed with the feature flag state
+     */
+    @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(@NotNull String key, @NotNull String distinctId, @Nullable FeatureFlagContext context);
+
+    /**
+     * Get all feature flags for the given distinct ID without blocking the calling thread.
+     *
+     * <p>The returned future is already complete if all flags could be evaluated locally.</p>
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @return Future completed with the feature flag states
+     */
+    default @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(@NotNull String distinctId) {
+        return getAllFeatureFlagsAsync(distinctId, null);
+    }
+
+    /**
+     * Get all feature flags for the given distinct ID with extra context without blocking the calling thread.
+     *
+     * <p>The returned future is already complete if all flags could be evaluated locally.</p>
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @param context Extra context to pass to the feature flag evaluation
+     * @return Future completed with the feature flag states
+     */
+    @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(@NotNull String distinctId, @Nullable FeatureFlagContext context);
+
+    /**
+     * Evaluates a single feature flag locally for each of the given distinct IDs, in parallel on the common
+     * {@link java.util.concurrent.ForkJoinPool}. Intended for batch jobs and validating rollouts.
+     *
+     * <p>All distinct IDs are evaluated against the same flag definitions. Flags which cannot be evaluated
+     * locally are never sent to PostHog and are counted as inconclusive, and no {@code $feature_flag_called}
+     * events are sent.</p>
+     *
+     * @param key Feature flag key
+     * @param distinctIds The distinct IDs to evaluate, may be a lazy iterable
+     * @return The distribution of results
+     * @throws IllegalStateException if no feature flag definitions are loaded
+     * @throws IllegalArgumentException if the feature flag does not exist
+     */
+    default @NotNull FeatureFlagDistribution evaluateBulk(@NotNull String key, @NotNull Iterable<String> distinctIds) {
+        return evaluateBulk(key, distinctIds, null, null);
+    }
+
+    /**
+     * Evaluates a single feature flag locally for each of the given distinct IDs, in parallel on the common
+     * {@link java.util.concurrent.ForkJoinPool}. Intended for batch jobs and validating rollouts.
+     *
+     * <p>All distinct IDs are evaluated against the same flag definitions. Flags which cannot be evaluated
+     * locally are never sent to PostHog and are counted as inconclusive, and no {@code $feature_flag_called}
+     * events are sent.</p>
+     *
+     * @param key Feature flag key
+     * @param distinctIds The distinct IDs to evaluate, may be a lazy iterable
+     * @param contextProvider Provides the context for each distinct ID, or null to use no context
+     * @param consumer Receives the state for each distinct ID, or null. Called concurrently from
+     *                 multiple threads and in no particular order
+     * @return The distribution of results
+     * @throws IllegalStateException if no feature flag definitions are loaded
+     * @throws IllegalArgumentException if the feature flag does not exist
+     */
+    @NotNull FeatureFlagDistribution evaluateBulk(
+            @NotNull String key, @NotNull Iterable<String> distinctIds,
+            @Nullable Function<String, FeatureFlagContext> contextProvider,
+            @Nullable BiConsumer<String, FeatureFlagState> consumer
+    );
+
+    /**
+     * Runs the action with a flag session for the distinct ID, so that repeated evaluations within it (for example
+     * across the layers handling one request) are only done once.
+     *
+     * <p>While the action runs on the calling thread, {@link #getFeatureFlag(String, String, FeatureFlagContext)},
+     * {@link #getAllFeatureFlags(String, FeatureFlagContext)} and their async variants memoize their results if
+     * called with the session's distinct ID and either no context or the session's context. Calls without a
+     * context use the session's context. Other calls, and calls from other threads, are not affected.</p>
+     *
+     * <p>Results are kept until the action returns, so a flag evaluates the same within the session even if its
+     * definition changes meanwhile. Sessions may be nested, the innermost one applies.</p>
+     *
+     * @param distinctId Unique ID of the target in your database. May not be empty
+     * @param context Extra context to pass to the feature flag evaluation, or null for none
+     * @param action The action to run
+     */
+    void withFlagSession(@NotNull String distinctId, @Nullable FeatureFlagContext context, @NotNull Runnable action);
+
     /**
      * Triggers a full reload of all local feature flags from the remote server. Only valid when local evaluation
      * is enabled. This call does not block on the flush to be completed.
@@ -334,6 +464,87 @@ public sealed interface PostHogClient permits PostHogClientImpl, PostHogClientNo
      */
     void reloadFeatureFlags();
 
+    /**
+     * Returns a future which completes once feature flag definitions are available for local evaluation, either
+     * from a bootstrap or the first successful fetch.
+     *
+     * <p>The future completes exceptionally with {@link UnsupportedOperationException} if local evaluation
+     * is not enabled.</p>
+     */
+    @NotNull CompletableFuture<Void> featureFlagsReady();
+
+    /**
+     * Waits up to the given timeout for feature flag definitions to be available for local evaluation.
+     *
+     * @param timeout The max wait time
+     * @return true if definitions are available, false if the timeout elapsed or the thread was interrupted.
+     * @throws UnsupportedOperationException if local feature flag evaluation is not enabled.
+     */
+    @Blocking
+    boolean awaitFeatureFlagsLoaded(@NotNull Duration timeout);
+
+    /**
+     * Returns the time since the current feature flag definitions were last fetched (or confirmed unchanged),
+     * or null if no definitions have been loaded. Can be used by health checks to detect stale definitions.
+     *
+     * <p>Definitions bootstrapped from a file use the file modification time, other bootstrapped definitions
+     * have an unknown age and are reported as fetched at the epoch.</p>
+     */
+    @Nullable Duration getFeatureFlagsAge();
+
+    /**
+     * Registers a listener which is notified with the added, removed and changed flags each time the local
+     * feature flag definitions change. Has no effect if local evaluation is not enabled.
+     *
+     * @param listener The listener to add
+     */
+    void addFeatureFlagChangeListener(@NotNull FeatureFlagChangeListener listener);
+
+    /**
+     * Removes a listener previously registered with {@link #addFeatureFlagChangeListener(FeatureFlagChangeListener)}.
+     *
+     * @param listener The listener to remove
+     */
+    void removeFeatureFlagChangeListener(@NotNull FeatureFlagChangeListener listener);
+
+    /**
+     * Returns statistics for the local evaluation result cache, or {@link CacheStats#EMPTY} if it is not enabled.
+     *
+     * @see Builder#evaluationCache(int)
+     */
+    @NotNull CacheStats getEvaluationCacheStats();
+
+    /**
+     * Returns statistics for the /decide response cache, or {@link CacheStats#EMPTY} if it is not enabled.
+     *
+     * @see Builder#decideCache(int, Duration)
+     */
+    @NotNull CacheStats getDecideCacheStats();
+
+    /**
+     * Returns statistics for remote (/decide) evaluation requests, including those rejected by the rate
+     * limit or circuit breaker.
+     *
+     * @see Builder#decideRateLimit(double, int)
+     * @see Builder#decideCircuitBreaker(int, Duration)
+     */
+    @NotNull RemoteEvaluationStats getRemoteEvaluationStats();
+
+    /**
+     * Returns the number of inconclusive local evaluations by {@link FeatureFlagState#getInconclusiveReason()}.
+     * These are the results which could not be evaluated locally and fall back to remote evaluation if allowed.
+     */
+    @NotNull Map<String, Long> getInconclusiveReasonCounts();
+
+    /**
+     * Returns evaluation statistics for each feature flag which has been evaluated, or an empty map if
+     * telemetry is not enabled. Flags missing from the local flag definitions are counted together under
+     * {@link FeatureFlagStats#UNKNOWN_FLAG}.
+     *
+     * @see Builder#featureFlagTelemetry(boolean)
+     */
+    @NotNull Map<String, FeatureFlagStats> getFeatureFlagStats();
+
 
     // Exceptions
 
@@ -370,6 +581,28 @@ public sealed interface PostHogClient permits PostHogClientImpl, PostHogClientNo
         private boolean sendFeatureFlagEvents = false;
         private Duration featureFlagsPollingInterval = Duration.ofMinutes(5);
         private Duration featureFlagsRequestTimeout = Duration.ofSeconds(3);
+        private Duration featureFlagEventDeduplicationWindow = Duration.ofHours(1);
+        private int featureFlagEventDeduplicationCapacity = 50_000;
+        private FeatureFlagsBootstrap featureFlagsBootstrap = null;
+        private Path featureFlagsSnapshotFile = null;
+        private Duration featureFlagsLoadTimeout = null;
+        private FeatureFlagDefinitionSource featureFlagDefinitionSource = null;
+        private Path sharedFeatureFlagSnapshotFile = null;
+        private int evaluationCacheMaxSize = 0;
+        private int decideCacheMaxSize = 0;
+        private Duration decideCacheTtl = Duration.ZERO;
+        private Duration decideCacheStaleWhileRevalidate = Duration.ZERO;
+        private int parallelEvaluationThreshold = 0;
+        private boolean featureFlagTelemetry = false;
+        private int experienceContinuityCapacity = 0;
+        private Duration experienceContinuityRevalidateAfter = Duration.ZERO;
+        private Path experienceContinuityFile = null;
+        private int propertyMemoryMaxPersons = 0;
+        private int propertyMemoryMaxGroups = 0;
+        private double decideRateLimit = 0;
+        private int decideRateLimitBurst = 0;
+        private int decideCircuitBreakerThreshold = 0;
+        private Duration decideCircuitBreakerOpenDuration = Duration.ZERO;
 
         private BiFunction<Throwable, JsonObject, Boolean> exceptionMiddleware = null;
 
@@ -445,6 +678,277 @@ public sealed interface PostHogClient permits PostHogClientImpl, PostHogClientNo
             return this;
         }
 
+        /**
+         * Configures deduplication of {@code $feature_flag_called} events. Each distinct id and flag combination
+         * is sent at most once per window. Defaults to one hour and 50,000 combinations.
+         *
+         * @param window How long a combination is remembered for, it may be remembered for up to twice as long.
+         * @param capacity The number of combinations remembered per window, at most 4,194,304. Memory is allocated
+         *                 up front, 32 to 64 bytes per combination (2 MiB for the default).
+         *                 If more combinations are seen within the window, it ends early.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagEventDeduplication(@NotNull Duration window, int capacity) {
+            if (window.isNegative())
+                throw new IllegalArgumentException("Deduplication window must be positive");
+            if (capacity <= 0 || capacity > 1 << 22)
+                throw new IllegalArgumentException("Deduplication capacity must be between 1 and 2^22");
+            this.featureFlagEventDeduplicationWindow = Objects.requireNonNull(window);
+            this.featureFlagEventDeduplicationCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Loads feature flag definitions from the given file when the client is created, so that flags can be
+         * evaluated locally before the first fetch completes (or without ever fetching, if no personal api key is set).
+         *
+         * <p>The file must contain a response from the {@code /api/feature_flag/local_evaluation} endpoint.</p>
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagsBootstrap(@NotNull Path file) {
+            this.featureFlagsBootstrap = FeatureFlagsBootstrap.file(Objects.requireNonNull(file));
+            return this;
+        }
+
+        /**
+         * Loads feature flag definitions from the given payload when the client is created.
+         *
+         * @see #featureFlagsBootstrap(Path)
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagsBootstrap(byte @NotNull [] payload) {
+            this.featureFlagsBootstrap = FeatureFlagsBootstrap.bytes(Objects.requireNonNull(payload));
+            return this;
+        }
+
+        /**
+         * Loads feature flag definitions from the given classpath resource when the client is created.
+         *
+         * @see #featureFlagsBootstrap(Path)
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagsBootstrapResource(@NotNull String resourceName) {
+            this.featureFlagsBootstrap = FeatureFlagsBootstrap.resource(Objects.requireNonNull(resourceName));
+            return this;
+        }
+
+        /**
+         * Makes {@link #build()} block until feature flag definitions are available for local evaluation (from a
+         * bootstrap or the first fetch), or the timeout elapses. The client is returned either way.
+         *
+         * <p>This is useful to avoid a burst of remote evaluations when a server starts accepting traffic.</p>
+         */
+        @Contract(pure = true)
+        public @NotNull Builder awaitFeatureFlagsOnBuild(@NotNull Duration timeout) {
+            if (timeout.isNegative())
+                throw new IllegalArgumentException("Feature flag load timeout must be positive");
+            this.featureFlagsLoadTimeout = Objects.requireNonNull(timeout);
+            return this;
+        }
+
+        /**
+         * Writes each newly fetched set of feature flag definitions to the given file. If no other bootstrap is
+         * configured, the file is also used to bootstrap the client when it is next created.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagsSnapshotFile(@NotNull Path file) {
+            this.featureFlagsSnapshotFile = Objects.requireNonNull(file);
+            return this;
+        }
+
+        /**
+         * Loads feature flag definitions for local evaluation from the given source, instead of polling PostHog
+         * with the personal api key. A personal api key is not required with a source.
+         *
+         * <p>For example, {@link FeatureFlagDefinitionSource#file(Path)} picks up definitions written by another
+         * process as soon as they change.</p>
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagDefinitionSource(@NotNull FeatureFlagDefinitionSource source) {
+            this.featureFlagDefinitionSource = Objects.requireNonNull(source);
+            return this;
+        }
+
+        /**
+         * Shares feature flag definitions with other clients on the same host through the given memory mapped file.
+         *
+         * <p>One client (the leader, elected with a lock on {@code <file>.lock}) fetches definitions as usual and
+         * writes them to the file. All other clients check the file every second and load the definitions when they
+         * change, instead of fetching them from PostHog. If the leader exits, another client takes over. Requires a
+         * personal api key or {@link #featureFlagDefinitionSource(FeatureFlagDefinitionSource)}, which is only used
+         * by the leader.</p>
+         */
+        @Contract(pure = true)
+        public @NotNull Builder sharedFeatureFlagSnapshot(@NotNull Path file) {
+            this.sharedFeatureFlagSnapshotFile = Objects.requireNonNull(file);
+            return this;
+        }
+
+        /**
+         * Enables caching of local evaluation results from {@link PostHogClient#getFeatureFlag(String, String, FeatureFlagContext)},
+         * keyed by flag, distinct id and {@link FeatureFlagContext}. Disabled by default.
+         *
+         * <p>Results are discarded when the flag definitions change. Context properties are compared using
+         * {@link Object#equals(Object)}, so they must not be mutated after being passed to the client.</p>
+         *
+         * @param maxSize The maximum number of results to keep.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder evaluationCache(int maxSize) {
+            if (maxSize <= 0)
+                throw new IllegalArgumentException("Evaluation cache size must be positive");
+            this.evaluationCacheMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Enables caching of remote (/decide) evaluation results, keyed by distinct id and the groups/properties
+         * in the {@link FeatureFlagContext}. Disabled by default.
+         *
+         * <p>The cache is cleared whenever local feature flag definitions are reloaded.</p>
+         *
+         * @param maxSize The maximum number of responses to keep, least recently used entries are evicted first.
+         * @param ttl How long a response may be used before it must be requested again.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder decideCache(int maxSize, @NotNull Duration ttl) {
+            if (maxSize <= 0)
+                throw new IllegalArgumentException("Decide cache size must be positive");
+            if (ttl.isNegative())
+                throw new IllegalArgumentException("Decide cache ttl must be positive");
+            this.decideCacheMaxSize = maxSize;
+            this.decideCacheTtl = Objects.requireNonNull(ttl);
+            return this;
+        }
+
+        /**
+         * Allows expired /decide cache entries to be served for up to the given duration while they are
+         * refreshed in the background. Only has an effect if {@link #decideCache(int, Duration)} is enabled.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder decideCacheStaleWhileRevalidate(@NotNull Duration staleWhileRevalidate) {
+            if (staleWhileRevalidate.isNegative())
+                throw new IllegalArgumentException("Stale while revalidate must be positive");
+            this.decideCacheStaleWhileRevalidate = Objects.requireNonNull(staleWhileRevalidate);
+            return this;
+        }
+
+        /**
+         * Limits the rate of remote (/decide) evaluation requests. Calls which exceed the limit complete
+         * immediately with the local (inconclusive) result. Cached responses do not count towards the limit.
+         * Disabled by default.
+         *
+         * @param requestsPerSecond The sustained request rate
+         * @param burst The maximum number of requests which may be sent at once after a quiet period
+         */
+        @Contract(pure = true)
+        public @NotNull Builder decideRateLimit(double requestsPerSecond, int burst) {
+            if (requestsPerSecond <= 0)
+                throw new IllegalArgumentException("Decide rate limit must be positive");
+            if (burst <= 0)
+                throw new IllegalArgumentException("Decide rate limit burst must be positive");
+            this.decideRateLimit = requestsPerSecond;
+            this.decideRateLimitBurst = burst;
+            return this;
+        }
+
+        /**
+         * Stops sending remote (/decide) evaluation requests after {@code failureThreshold} consecutive failures.
+         * While open, calls complete immediately with the local (inconclusive) result. After {@code openDuration}
+         * a single request is sent to check if PostHog has recovered. Disabled by default.
+         *
+         * @param failureThreshold The number of consecutive failures (errors or timeouts) before opening
+         * @param openDuration How long to wait before trying again
+         */
+        @Contract(pure = true)
+        public @NotNull Builder decideCircuitBreaker(int failureThreshold, @NotNull Duration openDuration) {
+            if (failureThreshold <= 0)
+                throw new IllegalArgumentException("Circuit breaker failure threshold must be positive");
+            if (openDuration.isNegative())
+                throw new IllegalArgumentException("Circuit breaker open duration must be positive");
+            this.decideCircuitBreakerThreshold = failureThreshold;
+            this.decideCircuitBreakerOpenDuration = Objects.requireNonNull(openDuration);
+            return this;
+        }
+
+        /**
+         * Evaluates flags for {@link PostHogClient#getAllFeatureFlags(String, FeatureFlagContext)} in parallel
+         * on the common {@link java.util.concurrent.ForkJoinPool} when there are at least {@code threshold}
+         * flags. Disabled by default.
+         *
+         * <p>Results are identical to sequential evaluation. This only helps for large numbers of flags, smaller
+         * sets are faster to evaluate on the calling thread.</p>
+         */
+        @Contract(pure = true)
+        public @NotNull Builder parallelFeatureFlagEvaluation(int threshold) {
+            if (threshold <= 0)
+                throw new IllegalArgumentException("Parallel evaluation threshold must be positive");
+            this.parallelEvaluationThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Remembers the last remote result of flags with experience continuity enabled per distinct id, and
+         * answers from it when evaluating locally. Such flags otherwise always require remote evaluation.
+         * Disabled by default.
+         *
+         * <p>Results older than {@code revalidateAfter} are still returned, but a remote evaluation is started
+         * in the background to refresh them (unless remote evaluation is disallowed for the call).</p>
+         *
+         * @param capacity The number of results to keep, rounded up to the store's bucket size.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder experienceContinuityStore(int capacity, @NotNull Duration revalidateAfter) {
+            return experienceContinuityStore(capacity, revalidateAfter, null);
+        }
+
+        /**
+         * Like {@link #experienceContinuityStore(int, Duration)}, but the results are kept in a memory mapped file
+         * so that they survive restarts. The file must not be shared between running clients.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder experienceContinuityStore(int capacity, @NotNull Duration revalidateAfter, @Nullable Path file) {
+            if (capacity <= 0 || capacity > ExperienceContinuityStore.MAX_CAPACITY)
+                throw new IllegalArgumentException("Experience continuity store capacity must be between 1 and " + ExperienceContinuityStore.MAX_CAPACITY);
+            if (revalidateAfter.isNegative())
+                throw new IllegalArgumentException("Revalidate after must not be negative");
+            this.experienceContinuityCapacity = capacity;
+            this.experienceContinuityRevalidateAfter = revalidateAfter;
+            this.experienceContinuityFile = file;
+            return this;
+        }
+
+        /**
+         * Remembers the person properties set by captured events ({@code $set}, {@code $set_once} and
+         * {@code $unset}) and the group properties set by group identify events, and uses them for feature flag
+         * evaluation when they are not given in the {@link FeatureFlagContext}. Properties given in the context
+         * take precedence. Disabled by default.
+         *
+         * <p>Only properties captured by this client are known, so this is most useful when the same process
+         * identifies users and evaluates their flags.</p>
+         *
+         * @param maxPersons The number of persons to remember, least recently used are forgotten first.
+         * @param maxGroups The number of groups to remember, least recently used are forgotten first.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagPropertyMemory(int maxPersons, int maxGroups) {
+            if (maxPersons <= 0 || maxGroups <= 0)
+                throw new IllegalArgumentException("Property memory size must be positive");
+            this.propertyMemoryMaxPersons = maxPersons;
+            this.propertyMemoryMaxGroups = maxGroups;
+            return this;
+        }
+
+        /**
+         * Records per flag evaluation statistics (local evaluations, inconclusive reasons, remote fallbacks and
+         * latency), available from {@link PostHogClient#getFeatureFlagStats()}. Disabled by default.
+         */
+        @Contract(pure = true)
+        public @NotNull Builder featureFlagTelemetry(boolean enabled) {
+            this.featureFlagTelemetry = enabled;
+            return this;
+        }
+
         @Contract(pure = true)
         public @NotNull Builder exceptionMiddleware(@NotNull BiFunction<Throwable, JsonObject, Boolean> exceptionMiddleware) {
             this.exceptionMiddleware = Objects.requireNonNull(exceptionMiddleware);
@@ -477,6 +981,20 @@ public sealed interface PostHogClient permits PostHogClientImpl, PostHogClientNo
                     eventBatchTimeout,
                     allowRemoteFeatureFlagEvaluation, sendFeatureFlagEvents, // Feature flags
                     featureFlagsPollingInterval, featureFlagsRequestTimeout,
+                    new FeatureFlagCallDeduplicator(featureFlagEventDeduplicationWindow, featureFlagEventDeduplicationCapacity),
+                    featureFlagsBootstrap, featureFlagsSnapshotFile, featureFlagsLoadTimeout,
+                    featureFlagDefinitionSource, sharedFeatureFlagSnapshotFile,
+                    evaluationCacheMaxSize > 0 ? new EvaluationCache(evaluationCacheMaxSize) : null,
+                    decideCacheMaxSize > 0 ? new DecideCache(decideCacheMaxSize, decideCacheTtl, decideCacheStaleWhileRevalidate) : null,
+                    new RemoteEvaluationBudget(
+                            decideRateLimit > 0 ? new TokenBucket(decideRateLimit, decideRateLimitBurst) : null,
+                            decideCircuitBreakerThreshold > 0 ? new CircuitBreaker(decideCircuitBreakerThreshold, decideCircuitBreakerOpenDuration) : null
+                    ),
+                    parallelEvaluationThreshold,
+                    featureFlagTelemetry ? new FeatureFlagTelemetry() : null,
+                    experienceContinuityCapacity > 0 ? ExperienceContinuityStore.open(experienceContinuityCapacity, experienceContinuityFile) : null,
+                    experienceContinuityRevalidateAfter,
+                    propertyMemoryMaxPersons > 0 ? new PropertyMemory(propertyMemoryMaxPersons, propertyMemoryMaxGroups) : null,
                     exceptionMiddleware // Exceptions
             );
         }
@@ -4,41 +4,71 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import org.jetbrains.annotations.Blocking;
+import com.google.gson.stream.JsonReader;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
 import static net.hollowcube.posthog.FeatureFlagEvaluator.evaluateFeatureFlag;
 import static net.hollowcube.posthog.FeatureFlagState.REMOTE_EVAL_NOT_ALLOWED;
+import static net.hollowcube.posthog.FeatureFlagState.REMOTE_EVAL_UNAVAILABLE;
 import static net.hollowcube.posthog.PostHogNames.*;
 
 public final class PostHogClientImpl implements PostHogClient {
     private static final String DEFAULT_LIBRARY_NAME = "github.com/hollow-cube/posthog-java";
     private static final String DEFAULT_LIBRARY_VERSION = "1.0.0";
-    private static final String USER_AGENT = String.format("%s/%s", DEFAULT_LIBRARY_NAME, DEFAULT_LIBRARY_VERSION);
+    static final String USER_AGENT = String.format("%s/%s", DEFAULT_LIBRARY_NAME, DEFAULT_LIBRARY_VERSION);
     private static final int STACKTRACE_FRAME_LIMIT = 100;
+    // Marks events which should have feature flags attached when sent, removed before sending.
+    private static final String SEND_FEATURE_FLAGS_MARKER = "$send_feature_flags";
+    private static final int RECENT_FEATURE_FLAGS_MAX_SIZE = 10_000;
+    private static final Duration RECENT_FEATURE_FLAGS_TTL = Duration.ofMinutes(10);
 
     private static final Logger log = LoggerFactory.getLogger(PostHogClientImpl.class);
 
     private final HttpClient httpClient = HttpClient.newHttpClient();
     private final EventQueue queue;
-    private final Timer featureFlagFetchTimer;
+    private final FeatureFlagDefinitionSource featureFlagDefinitionSource; // Null if local evaluation is not enabled
     private final Gson gson;
 
     private final String endpoint;
@@ -48,11 +78,28 @@ public final class PostHogClientImpl implements PostHogClient {
     private final JsonObject defaultEventProperties;
     private final Duration eventBatchTimeout;
 
-    private Map<String, FeatureFlagsResponse.Flag> featureFlags = null; // Null until first fetch
-    private final Map<String, Object> recentlyCapturedFeatureFlags = new ConcurrentHashMap<>();
+    private final AtomicReference<FeatureFlagSnapshot> featureFlags = new AtomicReference<>(); // Null until first fetch
+    private final List<FeatureFlagChangeListener> featureFlagChangeListeners = new CopyOnWriteArrayList<>();
+    private volatile Instant featureFlagsFetchedAt = null; // Null until first fetch
+    private final CompletableFuture<Void> featureFlagsReady = new CompletableFuture<>();
+    private final FeatureFlagCallDeduplicator recentlyCapturedFeatureFlags;
     private final boolean allowRemoteFeatureFlagEvaluation;
     private final boolean sendFeatureFlagEvents;
     private final Duration featureFlagsRequestTimeout;
+    private final EvaluationCache evaluationCache; // Null if disabled
+    private final DecideCache decideCache; // Null if disabled
+    private final RemoteEvaluationBudget remoteEvaluationBudget;
+    private final ConcurrentHashMap<String, LongAdder> inconclusiveReasons = new ConcurrentHashMap<>();
+    private final int parallelEvaluationThreshold; // Zero if disabled
+    private final FeatureFlagTelemetry telemetry; // Null if disabled
+    private final ExperienceContinuityStore experienceContinuityStore; // Null if disabled
+    private final long experienceContinuityRevalidateAfterMillis;
+    private final PropertyMemory propertyMemory; // Null if disabled
+    private final ThreadLocal<FlagSession> flagSession = new ThreadLocal<>();
+    private final SingleFlight<DecideCache.Key, FeatureFlagStates> decideRequests = new SingleFlight<>();
+    private final RecentFeatureFlags recentFeatureFlags = new RecentFeatureFlags(RECENT_FEATURE_FLAGS_MAX_SIZE, RECENT_FEATURE_FLAGS_TTL);
+    // Remote results are only remembered once an event asked for feature flags, they are unused otherwise.
+    private volatile boolean rememberRecentFeatureFlags = false;
 
     private final BiFunction<Throwable, JsonObject, Boolean> exceptionMiddleware;
 
@@ -72,6 +119,20 @@ public final class PostHogClientImpl implements PostHogClient {
             boolean sendFeatureFlagEvents,
             @NotNull Duration featureFlagsPollingInterval,
             @NotNull Duration featureFlagsRequestTimeout,
+            @NotNull FeatureFlagCallDeduplicator recentlyCapturedFeatureFlags,
+            @Nullable FeatureFlagsBootstrap featureFlagsBootstrap,
+            @Nullable Path featureFlagsSnapshotFile,
+            @Nullable Duration featureFlagsLoadTimeout,
+            @Nullable FeatureFlagDefinitionSource featureFlagDefinitionSource,
+            @Nullable Path sharedFeatureFlagSnapshotFile,
+            @Nullable EvaluationCache evaluationCache,
+            @Nullable DecideCache decideCache,
+            @NotNull RemoteEvaluationBudget remoteEvaluationBudget,
+            int parallelEvaluationThreshold,
+            @Nullable FeatureFlagTelemetry telemetry,
+            @Nullable ExperienceContinuityStore experienceContinuityStore,
+            @NotNull Duration experienceContinuityRevalidateAfter,
+            @Nullable PropertyMemory propertyMemory,
             @Nullable BiFunction<Throwable, JsonObject, Boolean> exceptionMiddleware
     ) {
         this.queue = new EventQueue(this::sendEventBatch, flushInterval, maxBatchSize);
@@ -86,28 +147,78 @@ public final class PostHogClientImpl implements PostHogClient {
         this.setPropertyIfAbsent(this.defaultEventProperties, LIB_VERSION, DEFAULT_LIBRARY_VERSION);
         this.eventBatchTimeout = eventBatchTimeout;
 
-        // Always enable local evaluation with personal api key.
-        if (this.personalApiKey != null) {
-            this.featureFlagFetchTimer = new Timer(this::loadRemoteFeatureFlags, featureFlagsPollingInterval);
-        } else if (!allowRemoteFeatureFlagEvaluation) {
-            throw new IllegalArgumentException("Personal API key is required when remote feature flag evaluation is disabled");
-        } else this.featureFlagFetchTimer = null;
         this.allowRemoteFeatureFlagEvaluation = allowRemoteFeatureFlagEvaluation;
         this.sendFeatureFlagEvents = sendFeatureFlagEvents;
         this.featureFlagsRequestTimeout = featureFlagsRequestTimeout;
+        this.recentlyCapturedFeatureFlags = recentlyCapturedFeatureFlags;
+        this.evaluationCache = evaluationCache;
+        this.decideCache = decideCache;
+        this.remoteEvaluationBudget = remoteEvaluationBudget;
+        this.parallelEvaluationThreshold = parallelEvaluationThreshold;
+        this.telemetry = telemetry;
+        this.experienceContinuityStore = experienceContinuityStore;
+        this.experienceContinuityRevalidateAfterMillis = experienceContinuityRevalidateAfter.toMillis();
+        this.propertyMemory = propertyMemory;
 
         this.exceptionMiddleware = exceptionMiddleware;
+
+        // A snapshot persisted by a previous run is used if there is no explicit bootstrap.
+        if (featureFlagsBootstrap == null && featureFlagsSnapshotFile != null && Files.exists(featureFlagsSnapshotFile)) {
+            featureFlagsBootstrap = FeatureFlagsBootstrap.file(featureFlagsSnapshotFile);
+        }
+        if (featureFlagsBootstrap != null) {
+            try (InputStream payload = featureFlagsBootstrap.payload().call()) {
+                this.updateFeatureFlags(payload, featureFlagsBootstrap.fetchedAt().call());
+            } catch (Exception e) {
+                log.error("failed to load bootstrapped feature flags", e);
+            }
+        }
+
+        // Always enable local evaluation with a definition source or personal api key. This must happen last
+        // because the source may start delivering definitions on another thread immediately.
+        if (featureFlagDefinitionSource == null && this.personalApiKey != null) {
+            featureFlagDefinitionSource = new HttpFeatureFlagDefinitionSource(this.httpClient, endpoint, this.personalApiKey,
+                    featureFlagsPollingInterval, featureFlagsRequestTimeout, featureFlagsSnapshotFile);
+        }
+        if (sharedFeatureFlagSnapshotFile != null) {
+            if (featureFlagDefinitionSource == null)
+                throw new IllegalArgumentException("Personal API key or definition source is required to share feature flags");
+            featureFlagDefinitionSource = new SharedFeatureFlagDefinitionSource(sharedFeatureFlagSnapshotFile, featureFlagDefinitionSource);
+        }
+        this.featureFlagDefinitionSource = featureFlagDefinitionSource;
+        if (featureFlagDefinitionSource != null) {
+            featureFlagDefinitionSource.start(new FeatureFlagDefinitionSource.Sink() {
+                @Override
+                public boolean accept(@NotNull InputStream payload, @NotNull Instant fetchedAt) throws IOException {
+                    return updateFeatureFlags(payload, fetchedAt);
+                }
+
+                @Override
+                public void unchanged(@NotNull Instant fetchedAt) {
+                    featureFlagsFetchedAt = fetchedAt;
+                }
+            });
+        } else if (!allowRemoteFeatureFlagEvaluation && this.featureFlags.get() == null) {
+            throw new IllegalArgumentException("Personal API key, definition source or bootstrapped feature flags are required when remote feature flag evaluation is disabled");
+        }
+
+        if (this.featureFlagDefinitionSource == null && this.featureFlags.get() == null) {
+            this.featureFlagsReady.completeExceptionally(new UnsupportedOperationException("Local feature flag evaluation is not enabled"));
+        } else if (featureFlagsLoadTimeout != null && !this.awaitFeatureFlagsLoaded(featureFlagsLoadTimeout)) {
+            log.warn("feature flags were not loaded within {}, continuing without them", featureFlagsLoadTimeout);
+        }
     }
 
     @Override
     public void shutdown(@NotNull Duration timeout) {
         try {
             this.queue.close(timeout);
-            if (this.featureFlagFetchTimer != null) this.featureFlagFetchTimer.close();
+            if (this.featureFlagDefinitionSource != null) this.featureFlagDefinitionSource.close();
+            if (this.experienceContinuityStore != null) this.experienceContinuityStore.flush();
             this.httpClient.shutdown();
             this.httpClient.awaitTermination(timeout);
         } catch (InterruptedException ignored) {
-            // Do nothing just exit
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -119,7 +230,7 @@ public final class PostHogClientImpl implements PostHogClient {
     }
 
     @Override
-    public void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties) {
+    public void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties, boolean sendFeatureFlags) {
         final JsonObject eventData = new JsonObject();
         // UUID is used to deduplicate messages server side so must be unique. May need to expose this
         // as an api in the future for custom deduplication when generating.
@@ -136,11 +247,19 @@ public final class PostHogClientImpl implements PostHogClient {
             eventProps.add(entry.getKey(), entry.getValue());
         }
         eventData.add("properties", eventProps);
+        if (this.propertyMemory != null) this.propertyMemory.learn(distinctId, event, localPropsObject);
+        // Flags are evaluated on the consumer thread so capture stays cheap.
+        if (sendFeatureFlags) {
+            eventData.addProperty(SEND_FEATURE_FLAGS_MARKER, true);
+            if (!this.rememberRecentFeatureFlags) this.rememberRecentFeatureFlags = true;
+        }
 
         this.queue.enqueue(eventData);
     }
 
     private void sendEventBatch(@NotNull JsonArray batch) {
+        attachFeatureFlags(batch);
+
         final HashMap<String, Object> body = new HashMap<>();
         body.put("api_key", this.projectApiKey);
         body.put("batch", batch);
@@ -166,191 +285,615 @@ public final class PostHogClientImpl implements PostHogClient {
         }
     }
 
+    /**
+     * Attaches feature flag properties to the events captured with {@code sendFeatureFlags}, evaluating the flags
+     * once per distinct id in the batch. Only local results (or recent remote results) are used, this never makes
+     * a remote evaluation request.
+     */
+    private void attachFeatureFlags(@NotNull JsonArray batch) {
+        Map<String, JsonObject> flagPropertiesByDistinctId = null; // Created on first use
+        for (final JsonElement element : batch) {
+            final JsonObject event = element.getAsJsonObject();
+            if (event.remove(SEND_FEATURE_FLAGS_MARKER) == null) continue;
+            if (flagPropertiesByDistinctId == null) flagPropertiesByDistinctId = new HashMap<>();
+
+            try {
+                final JsonObject flagProperties = flagPropertiesByDistinctId.computeIfAbsent(
+                        event.get("distinct_id").getAsString(), this::featureFlagEventProperties);
+                final JsonObject eventProps = event.getAsJsonObject("properties");
+                for (final Map.Entry<String, JsonElement> entry : flagProperties.entrySet()) {
+                    if (!eventProps.has(entry.getKey())) eventProps.add(entry.getKey(), entry.getValue());
+                }
+            } catch (Exception e) {
+                // Send the event without flags rather than not at all.
+                log.error("failed to attach feature flags to event", e);
+            }
+        }
+    }
+
+    private @NotNull JsonObject featureFlagEventProperties(@NotNull String distinctId) {
+        final FeatureFlagSnapshot snapshot = this.featureFlags.get();
+        final FeatureFlagStates recent = this.recentFeatureFlags.get(distinctId);
+        final Map<String, FeatureFlagState> states = new LinkedHashMap<>();
+        if (snapshot != null) {
+            final FeatureFlagState[] localStates = new FeatureFlagState[snapshot.ordered().size()];
+            evaluateAllLocally(snapshot, distinctId, withRememberedProperties(distinctId, FeatureFlagContext.EMPTY), localStates, false, false);
+            for (int i = 0; i < localStates.length; i++) {
+                FeatureFlagState state = localStates[i];
+                if (state.isInconclusive()) state = recent != null ? recent.getStates().get(snapshot.index().key(i)) : null;
+                if (state != null) states.put(snapshot.index().key(i), state);
+            }
+        } else if (recent != null) {
+            states.putAll(recent.getStates());
+        }
+
+        final JsonObject properties = new JsonObject();
+        final JsonArray activeFlags = new JsonArray();
+        for (final Map.Entry<String, FeatureFlagState> entry : states.entrySet()) {
+            final FeatureFlagState state = entry.getValue();
+            if (state.getVariant() != null) properties.addProperty(FEATURE_FLAG_PROPERTY_PREFIX + entry.getKey(), state.getVariant());
+            else properties.addProperty(FEATURE_FLAG_PROPERTY_PREFIX + entry.getKey(), state.isEnabled());
+            if (state.isEnabled()) activeFlags.add(entry.getKey());
+        }
+        properties.add(ACTIVE_FEATURE_FLAGS, activeFlags);
+        return properties;
+    }
+
 
     // Feature flags
 
     @Override
     public @NotNull FeatureFlagState getFeatureFlag(@NotNull String key, @NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        return await(getFeatureFlagAsync(key, distinctId, context), FeatureFlagState.DISABLED);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(@NotNull String key, @NotNull String distinctId, @Nullable FeatureFlagContext context) {
         final String featureFlagKey = nonNullNonEmpty("key", key);
-        final FeatureFlagContext featureFlagContext = Objects.requireNonNullElse(context, FeatureFlagContext.EMPTY);
+        final FlagSession session = this.flagSession.get();
+        if (session != null && session.matches(distinctId, context)) {
+            CompletableFuture<FeatureFlagState> result = session.flag(featureFlagKey);
+            if (result == null) {
+                result = getFeatureFlagAsync(featureFlagKey, distinctId, session.context(), true);
+                session.putFlag(featureFlagKey, result);
+            }
+            return result;
+        }
+        return getFeatureFlagAsync(featureFlagKey, distinctId, Objects.requireNonNullElse(context, FeatureFlagContext.EMPTY), false);
+    }
+
+    private @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(
+            @NotNull String featureFlagKey, @NotNull String distinctId,
+            @NotNull FeatureFlagContext context, boolean resolved
+    ) {
+        final FeatureFlagContext featureFlagContext = resolved ? context : withRememberedProperties(distinctId, context);
         final boolean allowRemoteEval = featureFlagContext.allowRemoteEvaluation() != null
                 ? featureFlagContext.allowRemoteEvaluation()
                 : this.allowRemoteFeatureFlagEvaluation;
+        final FeatureFlagTelemetry telemetry = this.telemetry;
+        final long start = telemetry != null ? System.nanoTime() : 0;
 
         // If we have local flags and this flag can be evaluated locally always prioritize that
-        FeatureFlagState result = null;
-        if (this.featureFlags != null) {
-            result = REMOTE_EVAL_NOT_ALLOWED;
-            final FeatureFlagsResponse.Flag flag = this.featureFlags.get(featureFlagKey);
-            if (flag != null) {
-                result = evaluateFeatureFlag(this.gson, flag, distinctId, featureFlagContext);
+        FeatureFlagState localResult = null;
+        final FeatureFlagSnapshot snapshot = this.featureFlags.get();
+        if (snapshot != null) {
+            final CompiledFlag flag = snapshot.flags().get(featureFlagKey);
+            if (flag != null && this.evaluationCache != null) {
+                final EvaluationCache.Key cacheKey = EvaluationCache.Key.of(featureFlagKey, distinctId, featureFlagContext);
+                localResult = this.evaluationCache.get(cacheKey, snapshot.version());
+                if (localResult == null) {
+                    localResult = evaluateFeatureFlag(this.gson, flag, distinctId, featureFlagContext);
+                    this.evaluationCache.put(cacheKey, localResult, snapshot.version());
+                }
+            } else if (flag != null) {
+                localResult = evaluateFeatureFlag(this.gson, flag, distinctId, featureFlagContext);
+            }
+            if (localResult != null) {
+                // Applied after the cache because the stored result can change without a new snapshot version.
+                localResult = resolveExperienceContinuity(flag, distinctId, featureFlagContext, localResult, allowRemoteEval);
+                recordInconclusive(localResult);
+                if (telemetry != null) telemetry.recordLocal(featureFlagKey, localResult);
             }
         }
+        // Keys which are not defined (yet) share one set of counters, otherwise any key would allocate its own.
+        final String telemetryKey = telemetry != null && (snapshot == null || !snapshot.flags().containsKey(featureFlagKey))
+                ? FeatureFlagStats.UNKNOWN_FLAG : featureFlagKey;
 
         // If we are allowed to eval remotely and did not get a conclusive result when doing
         // local evaluation then we should try remote evaluation.
-        if (allowRemoteEval && (result == null || result.isInconclusive())) {
-            try {
-                final JsonObject response = this.decide(distinctId, featureFlagContext);
-                final JsonObject featureFlags = response.getAsJsonObject("featureFlags");
-                final JsonObject featureFlagPayloads = response.has("featureFlagPayloads") ?
-                        response.getAsJsonObject("featureFlagPayloads") : new JsonObject();
-                result = new FeatureFlagState(featureFlags, featureFlagPayloads, featureFlagKey);
-            } catch (InterruptedException ignored) {
-                result = FeatureFlagState.DISABLED;
-            }
+        final CompletableFuture<FeatureFlagState> result;
+        if (allowRemoteEval && (localResult == null || localResult.isInconclusive())) {
+            // If remote evaluation fails (or is not attempted because of the budget) fall back to the local result.
+            final FeatureFlagState fallback = Objects.requireNonNullElse(localResult, REMOTE_EVAL_UNAVAILABLE);
+            if (telemetry != null) telemetry.recordRemoteFallback(telemetryKey);
+            result = this.decide(distinctId, featureFlagContext, featureFlagKey).thenApply(states -> {
+                if (states != null) return states.get(featureFlagKey);
+                if (telemetry != null) telemetry.recordRemoteError(telemetryKey);
+                return fallback;
+            }).whenComplete((ignored, e) -> {
+                if (telemetry != null) telemetry.recordLatency(telemetryKey, System.nanoTime() - start);
+            });
+        } else {
+            result = CompletableFuture.completedFuture(Objects.requireNonNullElse(localResult, REMOTE_EVAL_NOT_ALLOWED));
+            if (telemetry != null) telemetry.recordLatency(telemetryKey, System.nanoTime() - start);
         }
 
         // Send feature flag called event if configured to do so.
         final boolean sendCalledEvent = featureFlagContext.sendFeatureFlagEvents() != null
                 ? featureFlagContext.sendFeatureFlagEvents()
                 : this.sendFeatureFlagEvents;
-        if (sendCalledEvent && trackCapturedFeatureFlagCall(distinctId, featureFlagKey)) {
-            capture(distinctId, FEATURE_FLAG_CALLED, Map.of(
-                    FEATURE_FLAG, featureFlagKey,
-                    FEATURE_FLAG_RESPONSE, Objects.requireNonNullElse(result.getVariant(), String.valueOf(result.isEnabled())),
-                    FEATURE_FLAG_ERRORED, result.isInconclusive()
-            ));
-        }
-
-        return result;
+        if (!sendCalledEvent) return result;
+        return result.thenApply(state -> {
+            if (this.recentlyCapturedFeatureFlags.track(distinctId, featureFlagKey)) {
+                capture(distinctId, FEATURE_FLAG_CALLED, Map.of(
+                        FEATURE_FLAG, featureFlagKey,
+                        FEATURE_FLAG_RESPONSE, Objects.requireNonNullElse(state.getVariant(), String.valueOf(state.isEnabled())),
+                        FEATURE_FLAG_ERRORED, state.isInconclusive()
+                ));
+            }
+            return state;
+        });
     }
 
     @Override
     public @NotNull FeatureFlagStates getAllFeatureFlags(@NotNull String distinctId, @Nullable FeatureFlagContext context) {
-        final FeatureFlagContext featureFlagContext = Objects.requireNonNullElse(context, FeatureFlagContext.EMPTY);
+        return await(getAllFeatureFlagsAsync(distinctId, context), FeatureFlagStates.EMPTY);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(@NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        final FlagSession session = this.flagSession.get();
+        if (session != null && session.matches(distinctId, context)) {
+            CompletableFuture<FeatureFlagStates> result = session.allFlags();
+            if (result == null) {
+                result = getAllFeatureFlagsAsync(distinctId, session.context(), true);
+                session.putAllFlags(result);
+            }
+            return result;
+        }
+        return getAllFeatureFlagsAsync(distinctId, Objects.requireNonNullElse(context, FeatureFlagContext.EMPTY), false);
+    }
+
+    private @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(
+            @NotNull String distinctId, @NotNull FeatureFlagContext context, boolean resolved
+    ) {
+        final FeatureFlagContext featureFlagContext = resolved ? context : withRememberedProperties(distinctId, context);
         final boolean allowRemoteEval = featureFlagContext.allowRemoteEvaluation() != null
                 ? featureFlagContext.allowRemoteEvaluation()
                 : this.allowRemoteFeatureFlagEvaluation;
 
         // First try to evaluate all of the flags locally
         boolean needsLocalEvaluation = true;
-        final Map<String, FeatureFlagState> result = new HashMap<>();
-        if (this.featureFlags != null) {
-            needsLocalEvaluation = false;
-            for (final FeatureFlagsResponse.Flag flag : this.featureFlags.values()) {
-                final FeatureFlagState state = evaluateFeatureFlag(this.gson, flag, distinctId, featureFlagContext);
-                result.put(flag.key(), state);
-
-                // If we can't resolve this flag and we _are_ allowed to do remote eval break out and do that immediately.
-                if (allowRemoteEval && state.isInconclusive()) {
-                    needsLocalEvaluation = true;
-                    break;
-                }
+        FeatureFlagStates result = FeatureFlagStates.EMPTY;
+        final FeatureFlagSnapshot snapshot = this.featureFlags.get();
+        if (snapshot != null) {
+            final FeatureFlagState[] states = new FeatureFlagState[snapshot.ordered().size()];
+            result = new FeatureFlagStates(snapshot.index(), states);
+            // If we can't resolve a flag and we _are_ allowed to do remote eval stop and do that immediately.
+            needsLocalEvaluation = evaluateAllLocally(snapshot, distinctId, featureFlagContext, states, allowRemoteEval, allowRemoteEval);
+            for (int i = 0; i < states.length; i++) {
+                if (states[i] == null) continue;
+                recordInconclusive(states[i]);
+                if (this.telemetry != null) this.telemetry.recordLocal(snapshot.index().key(i), states[i]);
             }
         }
         // If we are not allowed to do remote eval we must return whatever results we got.
         // Alternatively if we succeeded in evaluating all flags we are good to go.
         if (!allowRemoteEval || !needsLocalEvaluation) {
-            return new FeatureFlagStates(result);
+            return CompletableFuture.completedFuture(result);
         }
 
-        // Evaluate the feature flags remotely
+        // Evaluate the feature flags remotely, falling back to the (complete) local results if that fails.
+        // Remote fallbacks are attributed to the flags which could not be evaluated locally.
+        final List<String> remoteFlagKeys = this.telemetry != null ? inconclusiveKeys(snapshot, result) : List.of();
+        for (final String key : remoteFlagKeys) this.telemetry.recordRemoteFallback(key);
+        return this.decide(distinctId, featureFlagContext, null).thenApply(states -> {
+            if (states != null) return states;
+            for (final String key : remoteFlagKeys) this.telemetry.recordRemoteError(key);
+            if (snapshot == null) return FeatureFlagStates.EMPTY;
+            final FeatureFlagState[] localStates = new FeatureFlagState[snapshot.ordered().size()];
+            evaluateAllLocally(snapshot, distinctId, featureFlagContext, localStates, false, false);
+            return new FeatureFlagStates(snapshot.index(), localStates);
+        });
+    }
+
+    @Override
+    public void withFlagSession(@NotNull String distinctId, @Nullable FeatureFlagContext context, @NotNull Runnable action) {
+        nonNullNonEmpty("distinctId", distinctId);
+        Objects.requireNonNull(action);
+        final FeatureFlagContext resolvedContext = withRememberedProperties(distinctId, Objects.requireNonNullElse(context, FeatureFlagContext.EMPTY));
+        final FlagSession previous = this.flagSession.get();
+        this.flagSession.set(new FlagSession(distinctId, context, resolvedContext));
         try {
-            final JsonObject response = this.decide(distinctId, featureFlagContext);
-            final JsonObject featureFlags = response.getAsJsonObject("featureFlags");
-            final JsonObject featureFlagsPayloads = response.has("featureFlagPayloads") ?
-                    response.getAsJsonObject("featureFlagPayloads") : new JsonObject();
-            final HashMap<String, FeatureFlagState> states = new HashMap<>();
-            if (featureFlags != null) {
-                for (String key : featureFlags.keySet())
-                    states.put(key, new FeatureFlagState(featureFlags, featureFlagsPayloads, key));
+            action.run();
+        } finally {
+            if (previous != null) this.flagSession.set(previous);
+            else this.flagSession.remove();
+        }
+    }
+
+    /**
+     * Adds the remembered person and group properties to the context, if property memory is enabled. Properties
+     * given in the context take precedence over remembered ones.
+     */
+    private @NotNull FeatureFlagContext withRememberedProperties(@NotNull String distinctId, @NotNull FeatureFlagContext context) {
+        final PropertyMemory memory = this.propertyMemory;
+        if (memory == null) return context;
+
+        Object personProperties = context.personProperties();
+        final JsonObject rememberedPerson = memory.person(distinctId);
+        if (rememberedPerson != null) {
+            personProperties = personProperties == null ? rememberedPerson
+                    : merge(rememberedPerson, gson.toJsonTree(personProperties).getAsJsonObject());
+        }
+
+        Map<String, Object> groupProperties = context.groupProperties();
+        if (context.groups() != null && gson.toJsonTree(context.groups()) instanceof JsonObject groups) {
+            for (final Map.Entry<String, JsonElement> group : groups.entrySet()) {
+                if (!group.getValue().isJsonPrimitive()) continue;
+                final JsonObject rememberedGroup = memory.group(group.getKey(), group.getValue().getAsString());
+                if (rememberedGroup == null) continue;
+
+                if (groupProperties == context.groupProperties()) // Copy on first change
+                    groupProperties = groupProperties == null ? new HashMap<>() : new HashMap<>(groupProperties);
+                final Object given = groupProperties.get(group.getKey());
+                groupProperties.put(group.getKey(), given == null ? rememberedGroup
+                        : merge(rememberedGroup, gson.toJsonTree(given).getAsJsonObject()));
             }
-            return new FeatureFlagStates(states);
-        } catch (InterruptedException ignored) {
-            return FeatureFlagStates.EMPTY;
         }
+
+        if (personProperties == context.personProperties() && groupProperties == context.groupProperties())
+            return context;
+        return new FeatureFlagContext(context.groups(), personProperties, groupProperties, context.sendFeatureFlagEvents(),
+                context.allowRemoteEvaluation(), context.remoteEvaluationTimeout(), context.completePersonProperties());
+    }
+
+    private static @NotNull JsonObject merge(@NotNull JsonObject remembered, @NotNull JsonObject given) {
+        final JsonObject merged = remembered.deepCopy();
+        for (final Map.Entry<String, JsonElement> entry : given.entrySet())
+            merged.add(entry.getKey(), entry.getValue());
+        return merged;
+    }
+
+    private @NotNull FeatureFlagState evaluateLocally(
+            @NotNull CompiledFlag flag, @NotNull String distinctId,
+            @NotNull FeatureFlagContext context, boolean revalidate
+    ) {
+        final FeatureFlagState state = evaluateFeatureFlag(this.gson, flag, distinctId, context);
+        return resolveExperienceContinuity(flag, distinctId, context, state, revalidate);
+    }
+
+    /**
+     * Answers an experience continuity flag with the last remote result for the distinct id, if there is one.
+     * Stale results are still returned, but are revalidated in the background if {@code revalidate} is set.
+     */
+    private @NotNull FeatureFlagState resolveExperienceContinuity(
+            @NotNull CompiledFlag flag, @NotNull String distinctId, @NotNull FeatureFlagContext context,
+            @NotNull FeatureFlagState state, boolean revalidate
+    ) {
+        if (this.experienceContinuityStore == null || state != flag.experienceContinuity()) return state;
+        final ExperienceContinuityStore.Entry entry = this.experienceContinuityStore.get(flag.key(), distinctId);
+        if (entry == null) return state;
+        // Definitions may have changed since the result was stored, the store is not invalidated.
+        final FeatureFlagState stored = flag.storedStateOf(entry);
+        if (stored == null) return state;
+
+        if (revalidate && System.currentTimeMillis() - entry.storedAt() >= this.experienceContinuityRevalidateAfterMillis) {
+            // All flags, so that revalidating many flags at once shares a request. The result is stored when it completes.
+            this.decide(distinctId, context, null);
+        }
+        return stored;
+    }
+
+    private void storeExperienceContinuityResults(@NotNull String distinctId, @NotNull FeatureFlagStates states) {
+        final FeatureFlagSnapshot snapshot = this.featureFlags.get();
+        if (this.experienceContinuityStore == null || snapshot == null) return;
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, FeatureFlagState> entry : states.getStates().entrySet()) {
+            final CompiledFlag flag = snapshot.flags().get(entry.getKey());
+            // Group flags are not keyed by distinct id, they are never answered from the store.
+            if (flag == null || !Boolean.TRUE.equals(flag.flag().ensureExperienceContinuity())
+                    || flag.flag().filters().aggregationGroupTypeIndex() != null) continue;
+            this.experienceContinuityStore.put(flag.key(), distinctId, entry.getValue(), now);
+        }
+    }
+
+    private static @NotNull List<String> inconclusiveKeys(@Nullable FeatureFlagSnapshot snapshot, @NotNull FeatureFlagStates states) {
+        if (snapshot == null) return List.of();
+        final List<String> keys = new ArrayList<>();
+        for (final Map.Entry<String, FeatureFlagState> entry : states.getStates().entrySet()) {
+            if (entry.getValue().isInconclusive()) keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    private void recordInconclusive(@NotNull FeatureFlagState state) {
+        final String reason = state.getInconclusiveReason();
+        if (reason == null) return;
+        this.inconclusiveReasons.computeIfAbsent(reason, ignored -> new LongAdder()).increment();
+    }
+
+    /**
+     * Evaluates every flag in the snapshot into {@code states} by ordinal.
+     *
+     * @return true if evaluation stopped early because of an inconclusive result
+     */
+    private boolean evaluateAllLocally(
+            @NotNull FeatureFlagSnapshot snapshot, @NotNull String distinctId, @NotNull FeatureFlagContext context,
+            @NotNull FeatureFlagState @NotNull [] states, boolean stopOnInconclusive, boolean revalidate
+    ) {
+        if (this.parallelEvaluationThreshold > 0 && states.length >= this.parallelEvaluationThreshold) {
+            return ParallelFlagEvaluation.evaluate((flag, id, ctx) -> evaluateLocally(flag, id, ctx, revalidate),
+                    snapshot.ordered(), distinctId, context, states, stopOnInconclusive);
+        }
+
+        for (int i = 0; i < states.length; i++) {
+            final FeatureFlagState state = evaluateLocally(snapshot.ordered().get(i), distinctId, context, revalidate);
+            states[i] = state;
+            if (stopOnInconclusive && state.isInconclusive()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public @NotNull FeatureFlagDistribution evaluateBulk(
+            @NotNull String key, @NotNull Iterable<String> distinctIds,
+            @Nullable Function<String, FeatureFlagContext> contextProvider,
+            @Nullable BiConsumer<String, FeatureFlagState> consumer
+    ) {
+        final String featureFlagKey = nonNullNonEmpty("key", key);
+        final FeatureFlagSnapshot snapshot = this.featureFlags.get();
+        if (snapshot == null)
+            throw new IllegalStateException("Feature flag definitions are not loaded");
+        final CompiledFlag flag = snapshot.flags().get(featureFlagKey);
+        if (flag == null)
+            throw new IllegalArgumentException("Unknown feature flag: " + featureFlagKey);
+
+        // States are interned per compiled flag, so there are only a handful of distinct keys here.
+        final ConcurrentHashMap<FeatureFlagState, LongAdder> counts = new ConcurrentHashMap<>();
+        StreamSupport.stream(distinctIds.spliterator(), true).forEach(distinctId -> {
+            final FeatureFlagContext context = withRememberedProperties(distinctId, contextProvider != null
+                    ? Objects.requireNonNullElse(contextProvider.apply(distinctId), FeatureFlagContext.EMPTY)
+                    : FeatureFlagContext.EMPTY);
+            final FeatureFlagState state = evaluateLocally(flag, distinctId, context, false);
+            counts.computeIfAbsent(state, ignored -> new LongAdder()).increment();
+            if (consumer != null) consumer.accept(distinctId, state);
+        });
+        return FeatureFlagDistribution.of(featureFlagKey, counts);
     }
 
     @Override
     public void reloadFeatureFlags() {
-        if (this.featureFlagFetchTimer == null)
+        if (this.featureFlagDefinitionSource == null)
             throw new UnsupportedOperationException("Local feature flag evaluation is not enabled");
-        this.featureFlagFetchTimer.wakeup();
+        this.featureFlagDefinitionSource.reload();
     }
 
-    @Blocking
-    private void loadRemoteFeatureFlags() {
-        if (this.personalApiKey == null) return; // Sanity check
-
-        final HttpRequest req = HttpRequest.newBuilder(URI.create(String.format("%s/api/feature_flag/local_evaluation", endpoint)))
-                .header("Authorization", String.format("Bearer %s", this.personalApiKey))
-                .header("User-Agent", USER_AGENT)
-                .timeout(featureFlagsRequestTimeout)
-                .build();
+    /**
+     * Parses a local evaluation payload and replaces the current flags if it differs from the last applied payload.
+     *
+     * <p>The payload can be several megabytes, so it is parsed as it is read rather than buffered. The hash is
+     * computed alongside so that unchanged definitions (eg from servers which do not support conditional
+     * requests) do not replace the current flags.</p>
+     *
+     * @return true if the flags were replaced, false if the payload was unchanged.
+     */
+    private boolean updateFeatureFlags(@NotNull InputStream payload, @NotNull Instant fetchedAt) throws IOException {
+        final MessageDigest digest;
         try {
-            final HttpResponse<String> res = this.httpClient.send(req, HttpResponse.BodyHandlers.ofString());
-            if (res.statusCode() != 200) {
-                log.error("unexpected response from /api/feature_flag/local_evaluation ({}): {}", res.statusCode(), res.body());
-            }
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported", e);
+        }
+        final List<FeatureFlagsResponse.Flag> newFeatureFlags = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new DigestInputStream(payload, digest), StandardCharsets.UTF_8))) {
+            FeatureFlagsResponse.readFlags(this.gson, reader, newFeatureFlags::add);
+        }
 
-            final FeatureFlagsResponse resBody = this.gson.fromJson(res.body(), FeatureFlagsResponse.class);
-            final HashMap<String, FeatureFlagsResponse.Flag> newFeatureFlags = new HashMap<>();
-            for (final FeatureFlagsResponse.Flag flag : resBody.flags()) {
-                newFeatureFlags.put(flag.key(), flag);
+        final byte[] contentHash = digest.digest();
+        this.featureFlagsFetchedAt = fetchedAt;
+        final FeatureFlagSnapshot previous = this.featureFlags.get();
+        if (previous != null && Arrays.equals(contentHash, previous.contentHash())) {
+            log.debug("feature flags unchanged since last fetch");
+            return false;
+        }
+
+        final long version = previous != null ? previous.version() + 1 : 1;
+        final FeatureFlagSnapshot snapshot = FeatureFlagSnapshot.compile(version, newFeatureFlags, contentHash);
+        this.featureFlags.set(snapshot);
+        this.featureFlagsReady.complete(null);
+
+        // Remote results may have been computed from the previous definitions.
+        if (this.decideCache != null) this.decideCache.invalidateAll();
+
+        if (!this.featureFlagChangeListeners.isEmpty()) {
+            final FeatureFlagChanges changes = snapshot.diff(previous);
+            for (final FeatureFlagChangeListener listener : this.featureFlagChangeListeners) {
+                try {
+                    listener.onFeatureFlagsChanged(changes);
+                } catch (Exception e) {
+                    log.error("feature flag change listener failed", e);
+                }
             }
-            this.featureFlags = Map.copyOf(newFeatureFlags);
-        } catch (InterruptedException ignored) {
-            // Do nothing just exit
-        } catch (HttpTimeoutException e) {
-            log.warn("timed out making /api/feature_flag/local_evaluation request", e);
-        } catch (Exception e) {
-            // Catch everything because we do not want the timer itself to stop running.
-            log.error("failed to make /api/feature_flag/local_evaluation request", e);
         }
+        return true;
     }
 
-    private @NotNull JsonObject decide(@NotNull String distinctId, @NotNull FeatureFlagContext context) throws InterruptedException {
-        final HashMap<String, Object> body = new HashMap<>();
-        body.put("api_key", this.projectApiKey);
-        body.put("distinct_id", nonNullNonEmpty("distinctId", distinctId));
-        if (context.groups() != null) body.put("groups", context.groups());
-        if (context.personProperties() != null) body.put("person_properties", context.personProperties());
-        if (context.groupProperties() != null) body.put("group_properties", context.groupProperties());
+    @Override
+    public void addFeatureFlagChangeListener(@NotNull FeatureFlagChangeListener listener) {
+        this.featureFlagChangeListeners.add(Objects.requireNonNull(listener));
+    }
 
-        final HttpRequest req = HttpRequest.newBuilder(URI.create(String.format("%s/decide?v=3", endpoint)))
-                .POST(HttpRequest.BodyPublishers.ofString(this.gson.toJson(body)))
-                .header("Content-Type", "application/json; charset=utf-8")
-                .header("User-Agent", USER_AGENT)
-                .timeout(featureFlagsRequestTimeout)
-                .build();
-        try {
-            final HttpResponse<String> res = this.httpClient.send(req, HttpResponse.BodyHandlers.ofString());
-            if (res.statusCode() != 200) {
-                throw new RuntimeException(String.format("unexpected response from /decide (%d): %s",
-                        res.statusCode(), res.body()));
-            }
+    @Override
+    public void removeFeatureFlagChangeListener(@NotNull FeatureFlagChangeListener listener) {
+        this.featureFlagChangeListeners.remove(listener);
+    }
 
-            return this.gson.fromJson(res.body(), JsonObject.class);
-        } catch (HttpTimeoutException e) {
-            log.warn("timed out making /decide request", e);
-            return new JsonObject();
-        } catch (Exception e) {
-            log.error("failed to make /decide request", e);
-            return new JsonObject();
+    @Override
+    public @NotNull CompletableFuture<Void> featureFlagsReady() {
+        return this.featureFlagsReady.copy();
+    }
+
+    @Override
+    public boolean awaitFeatureFlagsLoaded(@NotNull Duration timeout) {
+        if (this.featureFlagDefinitionSource == null && this.featureFlags.get() == null)
+            throw new UnsupportedOperationException("Local feature flag evaluation is not enabled");
+        try {
+            this.featureFlagsReady.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException ignored) {
+            return false;
         }
     }
 
+    @Override
+    public @Nullable Duration getFeatureFlagsAge() {
+        final Instant fetchedAt = this.featureFlagsFetchedAt;
+        return fetchedAt != null ? Duration.between(fetchedAt, Instant.now()) : null;
+    }
+
+    @Override
+    public @NotNull CacheStats getEvaluationCacheStats() {
+        return this.evaluationCache != null ? this.evaluationCache.stats() : CacheStats.EMPTY;
+    }
+
+    @Override
+    public @NotNull RemoteEvaluationStats getRemoteEvaluationStats() {
+        return this.remoteEvaluationBudget.stats();
+    }
+
+    @Override
+    public @NotNull Map<String, Long> getInconclusiveReasonCounts() {
+        final Map<String, Long> counts = new HashMap<>();
+        this.inconclusiveReasons.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return Map.copyOf(counts);
+    }
+
+    @Override
+    public @NotNull Map<String, FeatureFlagStats> getFeatureFlagStats() {
+        return this.telemetry != null ? this.telemetry.stats() : Map.of();
+    }
+
+    @Override
+    public @NotNull CacheStats getDecideCacheStats() {
+        return this.decideCache != null ? this.decideCache.stats() : CacheStats.EMPTY;
+    }
+
     /**
-     * Deduplicates recently sent distinctId/featureFlagKey combinations, kind of.
-     *
-     * <p>This concept comes from posthog-go in its <a href="https://github.com/PostHog/posthog-go/blob/ec95a60c64b0dd335dafa5c72e8a56c4edc0dbbd/posthog.go#L348">
-     * handling of sending feature flag called events.</href></a> I'm not very sure what the point is
-     * especially since the map clear allows two consecutive keys to return true.</p>
+     * Evaluates the flags remotely, going through the decide cache if it is enabled.
      *
-     * <p>My best guess is that its simply to roughly reduce event volume when evaluating a ton of feature flags.</p>
+     * <p>If the decide cache is enabled all flags are always requested, so that one response (and one request
+     * shared by concurrent callers) answers every flag for the distinct id and context. Otherwise only the given
+     * flag is requested. Failed requests are logged and never cached.</p>
      *
-     * @return true if the distinctId/featureFlagKey combination has not been seen "recently".
+     * @param flagKey The flag which is needed, or null to evaluate all flags
+     * @return The states, or null if the request failed, was not sent because of the remote evaluation
+     * budget, or did not complete within the context timeout
      */
-    private boolean trackCapturedFeatureFlagCall(@NotNull String distinctId, @NotNull String featureFlagKey) {
-        if (recentlyCapturedFeatureFlags.size() > 50_000) {
-            recentlyCapturedFeatureFlags.clear();
+    private @NotNull CompletableFuture<@Nullable FeatureFlagStates> decide(
+            @NotNull String distinctId, @NotNull FeatureFlagContext context,
+            @Nullable String flagKey
+    ) {
+        nonNullNonEmpty("distinctId", distinctId);
+
+        final DecideCache.Key key = DecideCache.key(this.gson, distinctId, this.decideCache != null ? null : flagKey, context);
+        if (this.decideCache != null) {
+            final FeatureFlagStates cached = this.decideCache.get(key, () -> this.fetchDecide(key, distinctId, context));
+            if (cached != null) return CompletableFuture.completedFuture(cached);
         }
 
-        final String cacheKey = distinctId + featureFlagKey;
-        return recentlyCapturedFeatureFlags.put(cacheKey, "") == null;
+        final CompletableFuture<@Nullable FeatureFlagStates> result = this.fetchDecide(key, distinctId, context);
+        final Duration timeout = context.remoteEvaluationTimeout();
+        if (timeout == null || result.isDone()) return result;
+
+        // The future is a copy for this caller only, so timing it out does not affect other callers
+        // waiting on the same request.
+        return result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS).exceptionally(e -> {
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof TimeoutException) this.remoteEvaluationBudget.onTimedOut();
+            else log.error("failed to evaluate feature flags remotely", cause);
+            return null;
+        });
+    }
+
+    /**
+     * Fetches (and caches if enabled) the decide response, sharing a single request between all concurrent
+     * callers with the same distinct id, flag key and context.
+     */
+    private @NotNull CompletableFuture<@Nullable FeatureFlagStates> fetchDecide(
+            @NotNull DecideCache.Key key, @NotNull String distinctId,
+            @NotNull FeatureFlagContext context
+    ) {
+        return this.decideRequests.execute(key, () -> {
+            final long generation = this.decideCache != null ? this.decideCache.generation() : 0;
+            return this.sendDecideRequest(distinctId, context, key.flagKey()).thenApply(states -> {
+                if (states != null && this.decideCache != null) this.decideCache.put(key, states, generation);
+                if (states != null) this.storeExperienceContinuityResults(distinctId, states);
+                if (states != null && this.rememberRecentFeatureFlags) {
+                    if (key.flagKey() == null) this.recentFeatureFlags.put(distinctId, states);
+                    else this.recentFeatureFlags.merge(distinctId, states);
+                }
+                return states;
+            });
+        });
     }
 
+    private @NotNull CompletableFuture<@Nullable FeatureFlagStates> sendDecideRequest(
+            @NotNull String distinctId, @NotNull FeatureFlagContext context,
+            @Nullable String flagKey
+    ) {
+        if (!this.remoteEvaluationBudget.tryAcquire()) {
+            log.debug("skipping /decide request, remote evaluation budget exceeded");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final HashMap<String, Object> body = new HashMap<>();
+        body.put("api_key", this.projectApiKey);
+        body.put("distinct_id", distinctId);
+        if (context.groups() != null) body.put("groups", context.groups());
+        if (context.personProperties() != null) body.put("person_properties", context.personProperties());
+        if (context.groupProperties() != null) body.put("group_properties", context.groupProperties());
+        // Only the requested flag is evaluated by servers which support it, others ignore this.
+        if (flagKey != null) body.put("flag_keys_to_evaluate", List.of(flagKey));
+
+        final HttpRequest req = DecodingBodyHandler.acceptEncoding(HttpRequest.newBuilder(URI.create(String.format("%s/decide?v=3", endpoint))))
+                .POST(HttpRequest.BodyPublishers.ofString(this.gson.toJson(body)))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .header("User-Agent", USER_AGENT)
+                .timeout(featureFlagsRequestTimeout)
+                .build();
+        return this.httpClient.sendAsync(req, DecodingBodyHandler.INSTANCE)
+                .thenApply(res -> {
+                    try (InputStream in = res.body()) {
+                        if (res.statusCode() != 200) {
+                            throw new RuntimeException(String.format("unexpected response from /decide (%d): %s",
+                                    res.statusCode(), new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+                        }
+
+                        // Streamed so that flags which were not requested are skipped rather than parsed.
+                        return DecideResponse.readStates(this.gson, new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)), flagKey);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .whenComplete((states, e) -> {
+                    if (e == null) this.remoteEvaluationBudget.onSuccess();
+                    else this.remoteEvaluationBudget.onFailure();
+                })
+                .exceptionally(e -> {
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof HttpTimeoutException) {
+                        log.warn("timed out making /decide request", cause);
+                    } else {
+                        log.error("failed to make /decide request", cause);
+                    }
+                    return null;
+                });
+    }
 
     // Exceptions
 
@@ -464,6 +1007,21 @@ public final class PostHogClientImpl implements PostHogClient {
         return stackFrames;
     }
 
+    /**
+     * Waits for the given future on the calling thread, returning the fallback if interrupted.
+     */
+    private static <T> @NotNull T await(@NotNull CompletableFuture<T> future, @NotNull T fallback) {
+        try {
+            return future.get();
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            return fallback;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     private void setPropertyIfAbsent(@NotNull JsonObject object, @NotNull String key, @NotNull String value) {
         if (!object.has(key)) {
             object.addProperty(key, value);
@@ -4,6 +4,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 final class PostHogClientNoop implements PostHogClient {
     static final PostHogClient INSTANCE = new PostHogClientNoop();
@@ -14,7 +18,7 @@ final class PostHogClientNoop implements PostHogClient {
     }
 
     @Override
-    public void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties) {
+    public void capture(@NotNull String distinctId, @NotNull String event, @NotNull Object properties, boolean sendFeatureFlags) {
 
     }
 
@@ -33,10 +37,82 @@ final class PostHogClientNoop implements PostHogClient {
         return FeatureFlagStates.EMPTY;
     }
 
+    @Override
+    public @NotNull CompletableFuture<FeatureFlagState> getFeatureFlagAsync(@NotNull String key, @NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        return CompletableFuture.completedFuture(FeatureFlagState.DISABLED);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<FeatureFlagStates> getAllFeatureFlagsAsync(@NotNull String distinctId, @Nullable FeatureFlagContext context) {
+        return CompletableFuture.completedFuture(FeatureFlagStates.EMPTY);
+    }
+
+    @Override
+    public @NotNull FeatureFlagDistribution evaluateBulk(
+            @NotNull String key, @NotNull Iterable<String> distinctIds,
+            @Nullable Function<String, FeatureFlagContext> contextProvider,
+            @Nullable BiConsumer<String, FeatureFlagState> consumer
+    ) {
+        return new FeatureFlagDistribution(key, 0, 0, 0, 0, Map.of());
+    }
+
+    @Override
+    public void withFlagSession(@NotNull String distinctId, @Nullable FeatureFlagContext context, @NotNull Runnable action) {
+        action.run();
+    }
+
     @Override
     public void reloadFeatureFlags() {
     }
 
+    @Override
+    public @NotNull CompletableFuture<Void> featureFlagsReady() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public boolean awaitFeatureFlagsLoaded(@NotNull Duration timeout) {
+        return true;
+    }
+
+    @Override
+    public @Nullable Duration getFeatureFlagsAge() {
+        return null;
+    }
+
+    @Override
+    public void addFeatureFlagChangeListener(@NotNull FeatureFlagChangeListener listener) {
+    }
+
+    @Override
+    public void removeFeatureFlagChangeListener(@NotNull FeatureFlagChangeListener listener) {
+    }
+
+    @Override
+    public @NotNull CacheStats getEvaluationCacheStats() {
+        return CacheStats.EMPTY;
+    }
+
+    @Override
+    public @NotNull CacheStats getDecideCacheStats() {
+        return CacheStats.EMPTY;
+    }
+
+    @Override
+    public @NotNull RemoteEvaluationStats getRemoteEvaluationStats() {
+        return RemoteEvaluationStats.EMPTY;
+    }
+
+    @Override
+    public @NotNull Map<String, Long> getInconclusiveReasonCounts() {
+        return Map.of();
+    }
+
+    @Override
+    public @NotNull Map<String, FeatureFlagStats> getFeatureFlagStats() {
+        return Map.of();
+    }
+
     @Override
     public void captureException(@NotNull Throwable throwable, @Nullable String distinctId, @Nullable Object properties) {
         
@@ -37,6 +37,8 @@ public final class PostHogNames {
     public static final String FEATURE_FLAG = "$feature_flag";
     public static final String FEATURE_FLAG_RESPONSE = "$feature_flag_response";
     public static final String FEATURE_FLAG_ERRORED = "$feature_flag_errored";
+    public static final String FEATURE_FLAG_PROPERTY_PREFIX = "$feature/";
+    public static final String ACTIVE_FEATURE_FLAGS = "$active_feature_flags";
 
     // Exceptions
     public static final String EXCEPTION = "$exception";
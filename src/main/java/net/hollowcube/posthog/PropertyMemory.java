@@ -0,0 +1,130 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static net.hollowcube.posthog.PostHogNames.*;
+
+/**
+ * Bounded memory of the last known person and group properties, learned from captured events, so that they do
+ * not need to be passed in every {@link FeatureFlagContext} for local evaluation.
+ *
+ * <p>Stored property objects are never mutated, updates replace them with a modified copy. Readers can therefore
+ * use them without copying.</p>
+ */
+final class PropertyMemory {
+    private static final int STRIPES = 16;
+
+    private record GroupKey(@NotNull String type, @NotNull String key) {
+    }
+
+    private final Stripe<String>[] persons;
+    private final Stripe<GroupKey>[] groups;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PropertyMemory(int maxPersons, int maxGroups) {
+        if (maxPersons <= 0 || maxGroups <= 0) throw new IllegalArgumentException("Max size must be positive");
+        this.persons = new Stripe[STRIPES];
+        this.groups = new Stripe[STRIPES];
+        // Spread the remainder over the first stripes so the totals are exactly the limits. Below STRIPES entries
+        // some stripes have no room, and keys in them are never remembered.
+        for (int i = 0; i < STRIPES; i++) {
+            persons[i] = new Stripe<>(maxPersons / STRIPES + (i < maxPersons % STRIPES ? 1 : 0));
+            groups[i] = new Stripe<>(maxGroups / STRIPES + (i < maxGroups % STRIPES ? 1 : 0));
+        }
+    }
+
+    /**
+     * Learns from the {@code $set}, {@code $set_once} and {@code $unset} properties of any event, and the
+     * {@code $group_set} properties of group identify events.
+     */
+    void learn(@NotNull String distinctId, @NotNull String event, @NotNull JsonObject eventProps) {
+        final JsonElement set = eventProps.get(SET), setOnce = eventProps.get(SET_ONCE), unset = eventProps.get(UNSET);
+        if (set != null || setOnce != null || unset != null) {
+            stripe(persons, distinctId).update(distinctId, current -> {
+                final JsonObject updated = current != null ? current.deepCopy() : new JsonObject();
+                if (setOnce instanceof JsonObject object) {
+                    for (final Map.Entry<String, JsonElement> entry : object.entrySet())
+                        if (!updated.has(entry.getKey())) updated.add(entry.getKey(), entry.getValue().deepCopy());
+                }
+                if (set instanceof JsonObject object) {
+                    for (final Map.Entry<String, JsonElement> entry : object.entrySet())
+                        updated.add(entry.getKey(), entry.getValue().deepCopy());
+                }
+                if (unset != null && unset.isJsonArray()) {
+                    for (final JsonElement key : unset.getAsJsonArray())
+                        if (key.isJsonPrimitive()) updated.remove(key.getAsString());
+                } else if (unset instanceof JsonObject object) {
+                    for (final String key : object.keySet()) updated.remove(key);
+                }
+                return updated;
+            });
+        }
+
+        if (!GROUP_IDENTIFY.equals(event)) return;
+        final JsonElement type = eventProps.get(GROUP_TYPE), key = eventProps.get(GROUP_KEY);
+        if (eventProps.get(GROUP_SET) instanceof JsonObject groupSet && type != null && type.isJsonPrimitive()
+                && key != null && key.isJsonPrimitive()) {
+            final GroupKey groupKey = new GroupKey(type.getAsString(), key.getAsString());
+            stripe(groups, groupKey).update(groupKey, current -> {
+                final JsonObject updated = current != null ? current.deepCopy() : new JsonObject();
+                for (final Map.Entry<String, JsonElement> entry : groupSet.entrySet())
+                    updated.add(entry.getKey(), entry.getValue().deepCopy());
+                return updated;
+            });
+        }
+    }
+
+    /**
+     * Returns the remembered properties of the person, which must not be modified.
+     */
+    @Nullable JsonObject person(@NotNull String distinctId) {
+        return stripe(persons, distinctId).get(distinctId);
+    }
+
+    /**
+     * Returns the remembered properties of the group, which must not be modified.
+     */
+    @Nullable JsonObject group(@NotNull String type, @NotNull String key) {
+        final GroupKey groupKey = new GroupKey(type, key);
+        return stripe(groups, groupKey).get(groupKey);
+    }
+
+    private static <K> @NotNull Stripe<K> stripe(@NotNull Stripe<K>[] stripes, @NotNull K key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    @FunctionalInterface
+    private interface Updater {
+        @NotNull JsonObject update(@Nullable JsonObject current);
+    }
+
+    private static final class Stripe<K> {
+        private final int maxSize;
+        // Access ordered, so the least recently used entry is evicted first.
+        private final LinkedHashMap<K, JsonObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Stripe(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized @Nullable JsonObject get(@NotNull K key) {
+            return entries.get(key);
+        }
+
+        synchronized void update(@NotNull K key, @NotNull Updater updater) {
+            entries.put(key, updater.update(entries.get(key)));
+            if (entries.size() > maxSize) {
+                final var iter = entries.entrySet().iterator();
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import net.hollowcube.posthog.FeatureFlagsResponse.Property;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles property filter operators into matchers when flag definitions are loaded, so that operands
+ * (regexes, dates, versions, etc) are parsed once rather than on every evaluation.
+ */
+final class PropertyOperators {
+    private static final Pattern RELATIVE_DATE = Pattern.compile("^-?([0-9]+)([hdwmy])$");
+    private static final int MAX_RELATIVE_DATE_AMOUNT = 10_000;
+
+    /**
+     * Matches a person property value which is present (possibly JSON null) against a compiled operand.
+     */
+    @FunctionalInterface
+    interface PropertyMatcher {
+        @NotNull FeatureFlagState match(@NotNull JsonElement personValue);
+    }
+
+    /**
+     * Compiles the property operator and operand. Operands which cannot be parsed produce a matcher which
+     * always returns an inconclusive result.
+     */
+    static @NotNull PropertyMatcher compile(@NotNull Property property) {
+        // Cohort filters are sent without an operator and are matched by the evaluator, not against a value.
+        if ("cohort".equals(property.type())) return inconclusive("Cohort property is not matched by value: " + property.key());
+        if (property.operator() == null) return inconclusive("Missing operator for property " + property.key());
+        try {
+            return compileOperator(property);
+        } catch (IllegalArgumentException e) {
+            return inconclusive(String.format("Invalid operand for property %s: %s", property.key(), e.getMessage()));
+        }
+    }
+
+    private static @NotNull PropertyMatcher compileOperator(@NotNull Property property) {
+        final JsonElement propertyValue = property.value();
+        return switch (property.operator()) {
+            // Only called if the property is present, absence is handled by the evaluator.
+            case "is_not_set" -> personValue -> FeatureFlagState.DISABLED;
+            case "is_set" -> personValue -> FeatureFlagState.ENABLED;
+            case "exact" -> {
+                final List<JsonElement> values = values(propertyValue);
+                yield personValue -> FeatureFlagState.of(values.contains(personValue));
+            }
+            case "is_not" -> {
+                final List<JsonElement> values = values(propertyValue);
+                yield personValue -> FeatureFlagState.of(!values.contains(personValue));
+            }
+            case "icontains", "not_icontains" -> {
+                final boolean negate = property.operator().startsWith("not_");
+                final String needle = valueAsString(propertyValue).toLowerCase(Locale.ROOT);
+                yield personValue -> FeatureFlagState.of(negate != valueAsString(personValue).toLowerCase(Locale.ROOT).contains(needle));
+            }
+            case "regex", "not_regex" -> {
+                final boolean negate = property.operator().startsWith("not_");
+                final Pattern pattern;
+                try {
+                    pattern = Pattern.compile(valueAsString(propertyValue));
+                } catch (PatternSyntaxException ignored) {
+                    yield personValue -> FeatureFlagState.DISABLED;
+                }
+                yield personValue -> FeatureFlagState.of(negate != pattern.matcher(valueAsString(personValue)).matches());
+            }
+            case "gt", "gte", "lt", "lte" -> compileComparison(property);
+            case "is_date_before", "is_date_after" -> compileDateComparison(property);
+            case "semver_eq", "semver_neq", "semver_gt", "semver_gte", "semver_lt", "semver_lte",
+                 "semver_tilde", "semver_caret", "semver_wildcard" -> compileSemver(property);
+            default -> inconclusive("Unknown operator: " + property.operator());
+        };
+    }
+
+    // Numeric comparison, falling back to comparing as strings if either side is not a number (as posthog-python does).
+    private static @NotNull PropertyMatcher compileComparison(@NotNull Property property) {
+        final String operator = property.operator();
+        final String operandString = valueAsString(property.value());
+        final Double operand = parseDouble(operandString);
+        return personValue -> {
+            final String personString = valueAsString(personValue);
+            final Double personNumber = operand != null ? parseDouble(personString) : null;
+            final int cmp = personNumber != null
+                    ? Double.compare(personNumber, operand)
+                    : personString.compareTo(operandString);
+            return FeatureFlagState.of(switch (operator) {
+                case "gt" -> cmp > 0;
+                case "gte" -> cmp >= 0;
+                case "lt" -> cmp < 0;
+                default -> cmp <= 0;
+            });
+        };
+    }
+
+    private static @NotNull PropertyMatcher compileDateComparison(@NotNull Property property) {
+        final boolean before = "is_date_before".equals(property.operator());
+        final FeatureFlagState invalidPersonValue = new FeatureFlagState(false, null,
+                String.format("Cannot parse date property value (%s)", property.key()));
+
+        final String operand = property.value().isJsonPrimitive() ? property.value().getAsString() : "";
+        final Matcher relative = RELATIVE_DATE.matcher(operand);
+        final ChronoUnit unit;
+        final long amount;
+        final Instant absolute;
+        if (relative.matches()) {
+            amount = Long.parseLong(relative.group(1));
+            if (amount >= MAX_RELATIVE_DATE_AMOUNT) return inconclusive("Relative date out of range: " + operand);
+            unit = switch (relative.group(2)) {
+                case "h" -> ChronoUnit.HOURS;
+                case "d" -> ChronoUnit.DAYS;
+                case "w" -> ChronoUnit.WEEKS;
+                case "m" -> ChronoUnit.MONTHS;
+                default -> ChronoUnit.YEARS;
+            };
+            absolute = null;
+        } else {
+            absolute = parseDate(operand);
+            if (absolute == null) return inconclusive("Invalid date operand: " + operand);
+            unit = null;
+            amount = 0;
+        }
+
+        return personValue -> {
+            final Instant personDate = personValue.isJsonPrimitive() ? parseDate(personValue.getAsString()) : null;
+            if (personDate == null) return invalidPersonValue;
+            final Instant date = absolute != null ? absolute : ZonedDateTime.now(ZoneOffset.UTC).minus(amount, unit).toInstant();
+            return FeatureFlagState.of(before ? personDate.isBefore(date) : personDate.isAfter(date));
+        };
+    }
+
+    private static @NotNull PropertyMatcher compileSemver(@NotNull Property property) {
+        final String operator = property.operator();
+        final FeatureFlagState invalidPersonValue = new FeatureFlagState(false, null,
+                String.format("Cannot parse semver property value (%s)", property.key()));
+
+        final String operandString = property.value().isJsonPrimitive() ? property.value().getAsString().trim() : "";
+        final int[] lower, upper; // Matches versions in [lower, upper)
+        if ("semver_wildcard".equals(operator)) {
+            // eg 1.2.* matches [1.2.0, 1.3.0)
+            final String prefix = operandString.endsWith(".*") ? operandString.substring(0, operandString.length() - 2) : operandString;
+            final int[] parts = parseSemverParts(prefix);
+            if (parts == null || parts.length > 2) return inconclusive("Invalid semver operand: " + operandString);
+            lower = new int[]{parts[0], parts.length > 1 ? parts[1] : 0, 0};
+            upper = parts.length > 1 ? new int[]{parts[0], parts[1] + 1, 0} : new int[]{parts[0] + 1, 0, 0};
+        } else {
+            lower = parseSemver(operandString);
+            if (lower == null) return inconclusive("Invalid semver operand: " + operandString);
+            upper = switch (operator) {
+                case "semver_tilde" -> new int[]{lower[0], lower[1] + 1, 0};
+                case "semver_caret" -> lower[0] > 0 ? new int[]{lower[0] + 1, 0, 0}
+                        : lower[1] > 0 ? new int[]{0, lower[1] + 1, 0}
+                        : new int[]{0, 0, lower[2] + 1};
+                default -> null;
+            };
+        }
+
+        return personValue -> {
+            final int[] version = personValue.isJsonPrimitive() ? parseSemver(personValue.getAsString()) : null;
+            if (version == null) return invalidPersonValue;
+            final int cmp = compareSemver(version, lower);
+            return FeatureFlagState.of(switch (operator) {
+                case "semver_eq" -> cmp == 0;
+                case "semver_neq" -> cmp != 0;
+                case "semver_gt" -> cmp > 0;
+                case "semver_gte" -> cmp >= 0;
+                case "semver_lt" -> cmp < 0;
+                case "semver_lte" -> cmp <= 0;
+                default -> cmp >= 0 && compareSemver(version, upper) < 0; // Range operators
+            });
+        };
+    }
+
+    private static @NotNull PropertyMatcher inconclusive(@NotNull String reason) {
+        final FeatureFlagState state = new FeatureFlagState(false, null, reason);
+        return personValue -> state;
+    }
+
+    // A list rather than a set, JsonPrimitive hash codes differ for some equal numbers (eg 12 and 12.0).
+    private static @NotNull List<JsonElement> values(@NotNull JsonElement value) {
+        if (!(value instanceof JsonArray array)) return List.of(value);
+        final List<JsonElement> values = new ArrayList<>(array.size());
+        for (final JsonElement e : array) values.add(e);
+        return List.copyOf(values);
+    }
+
+    private static @NotNull String valueAsString(@NotNull JsonElement elem) {
+        if (elem.isJsonPrimitive()) return elem.getAsString();
+        if (elem.isJsonNull()) return "null";
+        throw new IllegalArgumentException("Cannot convert " + elem + " to string");
+    }
+
+    private static @Nullable Double parseDouble(@NotNull String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an ISO 8601 date or date time, with or without an offset. Values without an offset are UTC.
+     */
+    static @Nullable Instant parseDate(@NotNull String value) {
+        // PostHog commonly formats dates as "2024-01-01 00:00:00"
+        if (value.length() > 10 && value.charAt(10) == ' ')
+            value = value.substring(0, 10) + 'T' + value.substring(11);
+        try {
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant();
+        } catch (DateTimeParseException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * Parses a version such as {@code 1.2.3}, {@code v1.2} or {@code 1.2.3-beta.1} into major, minor and patch.
+     * Missing components are zero, pre-release and build metadata are ignored.
+     */
+    static int @Nullable [] parseSemver(@NotNull String value) {
+        final int[] parts = parseSemverParts(value);
+        if (parts == null) return null;
+        final int[] version = new int[3];
+        System.arraycopy(parts, 0, version, 0, parts.length);
+        return version;
+    }
+
+    private static int @Nullable [] parseSemverParts(@NotNull String value) {
+        value = value.trim();
+        if (value.startsWith("v") || value.startsWith("V")) value = value.substring(1);
+        final int suffix = indexOfAny(value, '-', '+');
+        if (suffix != -1) value = value.substring(0, suffix);
+
+        final String[] split = value.split("\\.", -1);
+        if (split.length == 0 || split.length > 3) return null;
+        final int[] parts = new int[split.length];
+        for (int i = 0; i < split.length; i++) {
+            if (split[i].isEmpty()) return null;
+            for (int j = 0; j < split[i].length(); j++)
+                if (!Character.isDigit(split[i].charAt(j))) return null;
+            try {
+                parts[i] = Integer.parseInt(split[i]);
+            } catch (NumberFormatException ignored) {
+                return null; // Overflow
+            }
+        }
+        return parts;
+    }
+
+    private static int compareSemver(int @NotNull [] a, int @NotNull [] b) {
+        for (int i = 0; i < 3; i++) {
+            final int cmp = Integer.compare(a[i], b[i]);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    private static int indexOfAny(@NotNull String value, char a, char b) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == a || c == b) return i;
+        }
+        return -1;
+    }
+
+    private PropertyOperators() {
+    }
+}
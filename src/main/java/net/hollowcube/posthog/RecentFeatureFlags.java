@@ -0,0 +1,65 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the last remote evaluation result per distinct id for a short time, so that flags which cannot
+ * be evaluated locally can still be attached to events without a request.
+ *
+ * <p>Results are keyed by distinct id alone, regardless of the context they were evaluated with.</p>
+ */
+final class RecentFeatureFlags {
+
+    private record Entry(@NotNull FeatureFlagStates states, long storedAt) {
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    RecentFeatureFlags(int maxSize, @NotNull Duration ttl) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Max size must be positive");
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    synchronized @Nullable FeatureFlagStates get(@NotNull String distinctId) {
+        final Entry entry = entries.get(distinctId);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.storedAt > ttlNanos) {
+            entries.remove(distinctId);
+            return null;
+        }
+        return entry.states;
+    }
+
+    synchronized void put(@NotNull String distinctId, @NotNull FeatureFlagStates states) {
+        entries.put(distinctId, new Entry(states, System.nanoTime()));
+    }
+
+    /**
+     * Adds the results of a partial evaluation to the remembered results, keeping their age.
+     */
+    synchronized void merge(@NotNull String distinctId, @NotNull FeatureFlagStates states) {
+        final Entry entry = entries.get(distinctId);
+        if (entry == null || System.nanoTime() - entry.storedAt > ttlNanos) {
+            entries.put(distinctId, new Entry(states, System.nanoTime()));
+            return;
+        }
+
+        final Map<String, FeatureFlagState> merged = new HashMap<>(entry.states.getStates());
+        merged.putAll(states.getStates());
+        entries.put(distinctId, new Entry(new FeatureFlagStates(merged), entry.storedAt));
+    }
+}
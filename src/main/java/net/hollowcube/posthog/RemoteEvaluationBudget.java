@@ -0,0 +1,67 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the /decide requests made by a client, with an optional rate limit and circuit breaker.
+ */
+final class RemoteEvaluationBudget {
+    private final TokenBucket rateLimit; // Null if disabled
+    private final CircuitBreaker circuitBreaker; // Null if disabled
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    RemoteEvaluationBudget(@Nullable TokenBucket rateLimit, @Nullable CircuitBreaker circuitBreaker) {
+        this.rateLimit = rateLimit;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Must be called before sending a request, and followed by {@link #onSuccess()} or {@link #onFailure()}
+     * if it returns true.
+     *
+     * @return true if the request may be sent.
+     */
+    boolean tryAcquire() {
+        // The rate limit is checked first so that a half open circuit breaker does not hand out its
+        // trial request to a call which is then rate limited.
+        if (rateLimit != null && !rateLimit.tryAcquire()) {
+            rateLimited.increment();
+            return false;
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            shortCircuited.increment();
+            return false;
+        }
+        requests.increment();
+        return true;
+    }
+
+    void onSuccess() {
+        if (circuitBreaker != null) circuitBreaker.onSuccess();
+    }
+
+    void onFailure() {
+        failures.increment();
+        if (circuitBreaker != null) circuitBreaker.onFailure();
+    }
+
+    /**
+     * Records a caller which stopped waiting for a response because its deadline passed.
+     */
+    void onTimedOut() {
+        timedOut.increment();
+    }
+
+    @NotNull RemoteEvaluationStats stats() {
+        return new RemoteEvaluationStats(requests.sum(), failures.sum(), rateLimited.sum(), shortCircuited.sum(),
+                timedOut.sum(), circuitBreaker != null && circuitBreaker.isOpen());
+    }
+}
@@ -0,0 +1,18 @@
+package net.hollowcube.posthog;
+
+/**
+ * Point in time statistics for remote (/decide) feature flag evaluation.
+ *
+ * @param requests Number of requests sent
+ * @param failures Number of requests which failed or timed out
+ * @param rateLimited Number of requests not sent because the rate limit was exceeded
+ * @param shortCircuited Number of requests not sent because the circuit breaker was open
+ * @param timedOut Number of calls which stopped waiting for a response because their deadline passed
+ * @param circuitOpen Whether the circuit breaker is currently open
+ */
+public record RemoteEvaluationStats(
+        long requests, long failures, long rateLimited,
+        long shortCircuited, long timedOut, boolean circuitOpen
+) {
+    public static final RemoteEvaluationStats EMPTY = new RemoteEvaluationStats(0, 0, 0, 0, 0, false);
+}
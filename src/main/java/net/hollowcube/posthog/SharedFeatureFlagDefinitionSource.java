@@ -0,0 +1,376 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.Blocking;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Shares the definitions of an upstream source between processes on the same host through a memory mapped file.
+ *
+ * <p>One process (the leader, which holds an exclusive lock on {@code <file>.lock}) runs the upstream source
+ * and writes each new payload to the file. Every other process maps the file read only and checks a sequence
+ * number in the header every {@link #CHECK_INTERVAL}, reading the payload when it changes. If the leader exits,
+ * the OS releases its lock and the next process to check takes over.</p>
+ *
+ * <p>Layout: a 64 byte header (magic, format version, sequence, fetched at, payload length, checked at) followed
+ * by the payload. The sequence is a seqlock, odd while the leader is writing. Neither side holds the whole
+ * payload in memory: the leader writes the upstream payload to the file as it is parsed, and readers parse
+ * directly from the mapping, checking after every chunk that the sequence has not changed. The file only ever
+ * grows, so a reader's mapping stays valid while the leader grows it.</p>
+ */
+final class SharedFeatureFlagDefinitionSource implements FeatureFlagDefinitionSource {
+    private static final Logger log = LoggerFactory.getLogger(SharedFeatureFlagDefinitionSource.class);
+
+    static final Duration CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    private static final int MAGIC = 0x50484653; // PHFS
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int FETCHED_AT_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int CHECKED_AT_OFFSET = 32;
+
+    // Ordered access to the sequence, which plain ByteBuffer access does not provide.
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path file;
+    private final Path lockFile;
+    private final FeatureFlagDefinitionSource upstream;
+
+    private final Object lock = new Object(); // Guards the fields below, which are also accessed from the upstream
+    private FileChannel channel = null;
+    private MappedByteBuffer buffer = null;
+    private FileChannel lockChannel = null;
+    private FileLock leaderLock = null; // Null unless this process is the leader
+    private long lastSequence = -1;
+    private long lastCheckedAt = 0;
+    private boolean closed = false;
+
+    private Timer timer = null;
+    private Sink sink = null;
+
+    SharedFeatureFlagDefinitionSource(@NotNull Path file, @NotNull FeatureFlagDefinitionSource upstream) {
+        this.file = file.toAbsolutePath();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.upstream = upstream;
+    }
+
+    @Override
+    public void start(@NotNull Sink sink) {
+        if (this.sink != null) throw new IllegalStateException("Source already started");
+        this.sink = sink;
+        try {
+            synchronized (lock) {
+                this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+        } catch (IOException e) {
+            // Without the shared file every process has to fetch for itself.
+            log.error("failed to open shared feature flag snapshot {}, using the upstream source directly", file, e);
+            upstream.start(sink);
+            return;
+        }
+
+        // The first check happens immediately on another thread.
+        this.timer = new Timer(this::check, CHECK_INTERVAL);
+    }
+
+    @Override
+    public void reload() {
+        if (this.sink == null) throw new IllegalStateException("Source not started");
+        if (this.timer == null || isLeader()) upstream.reload();
+        else this.timer.wakeup();
+    }
+
+    @Override
+    public void close() {
+        final boolean leader;
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            leader = leaderLock != null;
+            closeQuietly(lockChannel); // Releases the lock
+            closeQuietly(channel);
+        }
+        if (this.timer != null) this.timer.close();
+        if (leader || this.timer == null) upstream.close();
+    }
+
+    boolean isLeader() {
+        synchronized (lock) {
+            return leaderLock != null;
+        }
+    }
+
+    @Blocking
+    private void check() {
+        try {
+            synchronized (lock) {
+                if (closed || leaderLock != null) return;
+                // Read what the previous leader published before taking over, so the upstream starts from it.
+                read();
+                leaderLock = tryLock();
+                if (leaderLock == null) return;
+            }
+            log.info("became leader for shared feature flag snapshot {}", file);
+            upstream.start(new LeaderSink());
+        } catch (Exception e) {
+            // Catch everything because we do not want the timer itself to stop running.
+            log.error("failed to read shared feature flag snapshot {}", file, e);
+        }
+    }
+
+    private @Nullable FileLock tryLock() throws IOException {
+        try {
+            return lockChannel.tryLock();
+        } catch (OverlappingFileLockException ignored) {
+            return null; // Another client in this process is the leader
+        }
+    }
+
+    // Must hold lock
+    private void read() throws IOException {
+        if (!map()) return;
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != FORMAT_VERSION) return;
+
+        while (true) {
+            final long sequence = (long) LONG.getAcquire((ByteBuffer) buffer, SEQUENCE_OFFSET);
+            if ((sequence & 1) != 0 || sequence == lastSequence) break; // Odd if being written, try again next time
+            final int length = buffer.getInt(LENGTH_OFFSET);
+            final long fetchedAt = buffer.getLong(FETCHED_AT_OFFSET);
+            // The leader grows the file before writing the length, so the mapping covers it if it is valid.
+            if (length < 0 || HEADER_SIZE + (long) length > buffer.capacity()) break;
+
+            try (InputStream in = new PayloadStream(buffer, sequence, buffer.slice(HEADER_SIZE, length).asReadOnlyBuffer())) {
+                sink.accept(in, Instant.ofEpochMilli(fetchedAt));
+            } catch (IOException | RuntimeException e) {
+                // The stream fails as soon as it sees a change, so nothing was applied. Read the new payload.
+                if (!sequenceChanged(buffer, sequence)) throw e;
+                continue;
+            }
+            lastSequence = sequence;
+        }
+
+        final long checkedAt = buffer.getLong(CHECKED_AT_OFFSET);
+        if (checkedAt > lastCheckedAt) {
+            lastCheckedAt = checkedAt;
+            sink.unchanged(Instant.ofEpochMilli(checkedAt));
+        }
+    }
+
+    private static boolean sequenceChanged(@NotNull ByteBuffer buffer, long sequence) {
+        VarHandle.acquireFence();
+        return (long) LONG.getVolatile(buffer, SEQUENCE_OFFSET) != sequence;
+    }
+
+    /**
+     * Marks the payload as being written, returning the (even) sequence it had before.
+     */
+    // Must hold lock
+    private long beginPublish() throws IOException {
+        ensureCapacity(HEADER_SIZE);
+        long sequence = (long) LONG.getVolatile((ByteBuffer) buffer, SEQUENCE_OFFSET);
+        if ((sequence & 1) != 0) sequence++; // A previous leader died (or failed) while writing
+        LONG.setVolatile((ByteBuffer) buffer, SEQUENCE_OFFSET, sequence + 1);
+        // Readers must not see any of the following writes without also seeing the odd sequence.
+        VarHandle.storeStoreFence();
+        return sequence;
+    }
+
+    // Must hold lock
+    private void finishPublish(long sequence, int length, @NotNull Instant fetchedAt) {
+        buffer.putInt(MAGIC_OFFSET, MAGIC)
+                .putInt(VERSION_OFFSET, FORMAT_VERSION)
+                .putLong(FETCHED_AT_OFFSET, fetchedAt.toEpochMilli())
+                .putInt(LENGTH_OFFSET, length)
+                .putLong(CHECKED_AT_OFFSET, fetchedAt.toEpochMilli());
+        LONG.setRelease((ByteBuffer) buffer, SEQUENCE_OFFSET, sequence + 2);
+        lastSequence = sequence + 2;
+    }
+
+    /**
+     * Grows the file (and mapping) to at least the given size.
+     */
+    // Must hold lock
+    private void ensureCapacity(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Payload too large to share: " + (size - HEADER_SIZE));
+        if (channel.size() < size) {
+            // Grow to the next power of two so that small changes do not remap every time.
+            final long newSize = Math.min(Integer.MAX_VALUE, Long.highestOneBit(size - 1) << 1);
+            channel.write(ByteBuffer.allocate(1), newSize - 1);
+        }
+        map();
+    }
+
+    // Must hold lock
+    private void touch(@NotNull Instant checkedAt) throws IOException {
+        if (closed || !map()) return;
+        buffer.putLong(CHECKED_AT_OFFSET, checkedAt.toEpochMilli());
+    }
+
+    /**
+     * Maps the whole file if the current mapping is smaller (or missing), read write if this is the leader.
+     *
+     * @return false if the file does not contain a header yet
+     */
+    private boolean map() throws IOException {
+        final long size = channel.size();
+        if (size < HEADER_SIZE) return false;
+        final boolean writable = leaderLock != null;
+        if (buffer == null || buffer.capacity() < size || (writable && buffer.isReadOnly())) {
+            final long mapSize = Math.min(size, Integer.MAX_VALUE);
+            buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, mapSize);
+        }
+        return true;
+    }
+
+    private static void closeQuietly(@Nullable FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("failed to close shared feature flag snapshot", e);
+        }
+    }
+
+    /**
+     * Reads a payload from the mapping, failing if the leader started writing since {@code sequence} was read.
+     * Each chunk is checked after it is copied, so every byte returned belongs to the same payload.
+     */
+    private static final class PayloadStream extends InputStream {
+        private final ByteBuffer mapping;
+        private final long sequence;
+        private final ByteBuffer payload;
+
+        private PayloadStream(@NotNull ByteBuffer mapping, long sequence, @NotNull ByteBuffer payload) {
+            this.mapping = mapping;
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!payload.hasRemaining()) return -1;
+            final int b = payload.get() & 0xFF;
+            checkSequence();
+            return b;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!payload.hasRemaining()) return -1;
+            final int n = Math.min(len, payload.remaining());
+            payload.get(b, off, n);
+            checkSequence();
+            return n;
+        }
+
+        private void checkSequence() throws IOException {
+            if (sequenceChanged(mapping, sequence))
+                throw new IOException("Shared feature flag snapshot changed while reading");
+        }
+    }
+
+    /**
+     * Applies definitions from the upstream source locally, and publishes them to the other processes if
+     * they changed.
+     */
+    private final class LeaderSink implements Sink {
+
+        @Override
+        public boolean accept(@NotNull InputStream payload, @NotNull Instant fetchedAt) throws IOException {
+            synchronized (lock) {
+                if (closed) return sink.accept(payload, fetchedAt);
+
+                final long sequence = beginPublish();
+                final PublishingStream in = new PublishingStream(payload);
+                final boolean changed;
+                try {
+                    changed = sink.accept(in, fetchedAt);
+                    in.transferTo(OutputStream.nullOutputStream()); // Whatever the parser did not need
+                } catch (IOException | RuntimeException e) {
+                    // The payload in the file is incomplete, the sequence stays odd until the next one is written.
+                    lastSequence = -1;
+                    throw e;
+                }
+
+                // Unchanged definitions have the same content hash as the ones last read or published, so the
+                // bytes just written are the ones which were there before and readers need not read them again.
+                if (!changed && lastSequence == sequence && in.length == buffer.getInt(LENGTH_OFFSET)) {
+                    LONG.setRelease((ByteBuffer) buffer, SEQUENCE_OFFSET, sequence);
+                    touch(fetchedAt);
+                } else {
+                    finishPublish(sequence, in.length, fetchedAt);
+                }
+                return changed;
+            }
+        }
+
+        @Override
+        public void unchanged(@NotNull Instant fetchedAt) {
+            sink.unchanged(fetchedAt);
+            synchronized (lock) {
+                try {
+                    touch(fetchedAt);
+                } catch (IOException e) {
+                    log.warn("failed to update shared feature flag snapshot {}", file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes everything read from the upstream payload to the file. Closing it does not close the payload.
+     */
+    // Must hold lock while reading
+    private final class PublishingStream extends InputStream {
+        private final InputStream payload;
+        private int length = 0;
+
+        private PublishingStream(@NotNull InputStream payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = payload.read();
+            if (b == -1) return -1;
+            ensureCapacity(HEADER_SIZE + (long) length + 1);
+            buffer.put(HEADER_SIZE + length, (byte) b);
+            length++;
+            return b;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            final int n = payload.read(b, off, len);
+            if (n <= 0) return n;
+            ensureCapacity(HEADER_SIZE + (long) length + n);
+            buffer.put(HEADER_SIZE + length, b, off, n);
+            length += n;
+            return n;
+        }
+    }
+}
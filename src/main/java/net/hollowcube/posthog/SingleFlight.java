@@ -0,0 +1,41 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key so that only one of them runs the underlying task.
+ *
+ * <p>The first caller for a key starts the task, any callers arriving while it is in flight share its
+ * result (or exception).</p>
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Starts the task, or joins the in flight task with the same key.
+     *
+     * <p>Each caller receives its own dependent future, so cancelling or completing it does not
+     * affect other callers.</p>
+     */
+    @NotNull CompletableFuture<V> execute(@NotNull K key, @NotNull Supplier<CompletableFuture<V>> task) {
+        final CompletableFuture<V> promise = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) return existing.copy();
+
+        try {
+            task.get().whenComplete((result, error) -> {
+                inFlight.remove(key, promise);
+                if (error != null) promise.completeExceptionally(error);
+                else promise.complete(result);
+            });
+        } catch (Throwable t) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(t);
+        }
+        return promise.copy();
+    }
+}
@@ -11,6 +11,8 @@ final class Timer {
 
     private final Thread taskThread;
     private volatile boolean closed = false;
+    // The task may park itself (eg waiting on a request), which would consume the unpark of a wakeup.
+    private volatile boolean wakeupRequested = false;
 
     public Timer(@NotNull Runnable task, @NotNull Duration flushInterval) {
         this.task = task;
@@ -25,6 +27,7 @@ final class Timer {
     public void wakeup() {
         checkNotClosed();
 
+        wakeupRequested = true;
         LockSupport.unpark(taskThread);
     }
 
@@ -40,7 +43,12 @@ final class Timer {
         while (!closed) {
             task.run();
 
-            LockSupport.parkNanos(maxFlushIntervalNs);
+            // Parks again after early returns, such as the leftover permit of a wakeup which arrived during the task.
+            final long deadline = System.nanoTime() + maxFlushIntervalNs;
+            long remaining;
+            while (!wakeupRequested && !closed && (remaining = deadline - System.nanoTime()) > 0)
+                LockSupport.parkNanos(remaining);
+            wakeupRequested = false;
         }
     }
 
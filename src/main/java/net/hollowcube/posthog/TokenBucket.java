@@ -0,0 +1,36 @@
+package net.hollowcube.posthog;
+
+/**
+ * A token bucket rate limiter. Tokens are refilled continuously at a fixed rate up to the burst size,
+ * each permit consumes one token.
+ */
+final class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+
+    // Guarded by this
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("Permits per second must be positive");
+        if (burst <= 0) throw new IllegalArgumentException("Burst must be positive");
+        this.tokensPerNano = permitsPerSecond / 1_000_000_000d;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * @return true if a permit was acquired, false if the rate limit has been exceeded.
+     */
+    synchronized boolean tryAcquire() {
+        final long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncFeatureFlagTest {
+
+    @Test
+    void localEvaluationCompletesImmediately() throws Exception {
+        var definitions = "{\"flags\":[{\"key\":\"flag\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":100}],"
+                + "\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true}]}";
+        try (var server = new TestServer("{\"featureFlags\":{}}")) {
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint())
+                    .featureFlagsBootstrap(definitions.getBytes(StandardCharsets.UTF_8)).build();
+            try {
+                var flag = client.getFeatureFlagAsync("flag", "person-a", null);
+                assertTrue(flag.isDone());
+                assertTrue(flag.join().isEnabled());
+
+                var all = client.getAllFeatureFlagsAsync("person-a", null);
+                assertTrue(all.isDone());
+                assertTrue(all.join().isEnabled("flag"));
+                assertEquals(0, server.decideCalls.get());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void remoteEvaluationCompletesOnAnotherThread() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{\"flag\":\"variant\"}}")) {
+            var gate = new CountDownLatch(1);
+            server.decideGate = gate;
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                var caller = Thread.currentThread();
+                var flag = client.getFeatureFlagAsync("flag", "person-a", null);
+                var all = client.getAllFeatureFlagsAsync("person-b", null);
+                // Registered while incomplete, so they run on the thread which completes the request.
+                var flagThread = flag.thenApply(ignored -> Thread.currentThread());
+                var allThread = all.thenApply(ignored -> Thread.currentThread());
+                assertFalse(flag.isDone());
+                assertFalse(all.isDone());
+
+                gate.countDown();
+                assertEquals("variant", flag.get(10, TimeUnit.SECONDS).getVariant());
+                assertEquals("variant", all.get(10, TimeUnit.SECONDS).getVariant("flag"));
+                assertNotSame(caller, flagThread.join());
+                assertNotSame(caller, allThread.join());
+                assertEquals(2, server.decideCalls.get());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void interruptedWhileWaitingKeepsInterruptStatus() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{\"flag\":\"variant\"}}")) {
+            var gate = new CountDownLatch(1);
+            server.decideGate = gate;
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                Thread.currentThread().interrupt();
+                assertFalse(client.isFeatureEnabled("flag", "person-a"));
+                assertTrue(Thread.interrupted());
+            } finally {
+                gate.countDown();
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecideCacheTest {
+    private static final Gson GSON = new Gson();
+    private static final FeatureFlagStates STATES = new FeatureFlagStates(Map.of("flag", FeatureFlagState.ENABLED));
+    private static final Supplier<CompletableFuture<FeatureFlagStates>> NO_REVALIDATE = () -> fail("unexpected revalidation");
+
+    @Test
+    void keyIncludesFlagKeyAndContext() {
+        var context = new FeatureFlagContext(null, Map.of("plan", "pro"), null, null, null);
+        assertEquals(DecideCache.key(GSON, "person-a", null, context), DecideCache.key(GSON, "person-a", null, context));
+        assertNotEquals(DecideCache.key(GSON, "person-a", null, context), DecideCache.key(GSON, "person-a", "flag", context));
+        assertNotEquals(DecideCache.key(GSON, "person-a", null, context), DecideCache.key(GSON, "person-a", null, FeatureFlagContext.EMPTY));
+        // Options which are not sent to the server do not affect the key
+        var noRemote = new FeatureFlagContext(null, Map.of("plan", "pro"), null, false, true);
+        assertEquals(DecideCache.key(GSON, "person-a", null, context), DecideCache.key(GSON, "person-a", null, noRemote));
+    }
+
+    @Test
+    void expiresAfterTtl() throws InterruptedException {
+        var cache = new DecideCache(100, Duration.ofMillis(50), Duration.ZERO);
+        var key = DecideCache.key(GSON, "person-a", null, FeatureFlagContext.EMPTY);
+        cache.put(key, STATES, cache.generation());
+        assertSame(STATES, cache.get(key, NO_REVALIDATE));
+
+        Thread.sleep(100);
+        assertNull(cache.get(key, NO_REVALIDATE));
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    void staleWhileRevalidate() throws InterruptedException {
+        var cache = new DecideCache(100, Duration.ofMillis(50), Duration.ofSeconds(10));
+        var key = DecideCache.key(GSON, "person-a", null, FeatureFlagContext.EMPTY);
+        cache.put(key, STATES, cache.generation());
+        Thread.sleep(100);
+
+        // Stale entries are served, but only the first caller triggers a refresh.
+        var revalidations = new AtomicInteger();
+        var refresh = new CompletableFuture<FeatureFlagStates>();
+        Supplier<CompletableFuture<FeatureFlagStates>> revalidate = () -> {
+            revalidations.incrementAndGet();
+            return refresh;
+        };
+        assertSame(STATES, cache.get(key, revalidate));
+        assertSame(STATES, cache.get(key, revalidate));
+        assertEquals(1, revalidations.get());
+
+        // The refreshed entry is fresh again
+        var refreshed = new FeatureFlagStates(Map.of("flag", FeatureFlagState.DISABLED));
+        cache.put(key, refreshed, cache.generation());
+        assertSame(refreshed, cache.get(key, NO_REVALIDATE));
+    }
+
+    @Test
+    void failedRevalidationIsRetried() throws InterruptedException {
+        var cache = new DecideCache(100, Duration.ofMillis(50), Duration.ofSeconds(10));
+        var key = DecideCache.key(GSON, "person-a", null, FeatureFlagContext.EMPTY);
+        cache.put(key, STATES, cache.generation());
+        Thread.sleep(100);
+
+        var revalidations = new AtomicInteger();
+        // Rejected by the budget
+        assertSame(STATES, cache.get(key, () -> {
+            revalidations.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }));
+        // Failed request
+        assertSame(STATES, cache.get(key, () -> {
+            revalidations.incrementAndGet();
+            return CompletableFuture.failedFuture(new RuntimeException("failed"));
+        }));
+        assertSame(STATES, cache.get(key, () -> {
+            revalidations.incrementAndGet();
+            return new CompletableFuture<>();
+        }));
+        assertEquals(3, revalidations.get());
+    }
+
+    @Test
+    void responsesFromBeforeInvalidationAreNotStored() {
+        var cache = new DecideCache(100, Duration.ofSeconds(10), Duration.ZERO);
+        var key = DecideCache.key(GSON, "person-a", null, FeatureFlagContext.EMPTY);
+        var generation = cache.generation();
+        cache.invalidateAll();
+        cache.put(key, STATES, generation);
+        assertNull(cache.get(key, NO_REVALIDATE));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        var cache = new DecideCache(2, Duration.ofSeconds(10), Duration.ZERO);
+        var a = DecideCache.key(GSON, "person-a", null, FeatureFlagContext.EMPTY);
+        var b = DecideCache.key(GSON, "person-b", null, FeatureFlagContext.EMPTY);
+        var c = DecideCache.key(GSON, "person-c", null, FeatureFlagContext.EMPTY);
+        cache.put(a, STATES, cache.generation());
+        cache.put(b, STATES, cache.generation());
+        assertNotNull(cache.get(a, NO_REVALIDATE));
+        cache.put(c, STATES, cache.generation());
+
+        assertNotNull(cache.get(a, NO_REVALIDATE));
+        assertNull(cache.get(b, NO_REVALIDATE));
+        assertNotNull(cache.get(c, NO_REVALIDATE));
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    void clientRequestsAllFlagsWhenCaching() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{\"a\":true,\"b\":\"variant\"}}")) {
+            var cached = PostHogClient.newBuilder("key").endpoint(server.endpoint())
+                    .decideCache(100, Duration.ofSeconds(10)).build();
+            try {
+                assertTrue(cached.isFeatureEnabled("a", "person-a"));
+                assertFalse(server.lastDecideBody.contains("flag_keys_to_evaluate"));
+                // Answered by the response for all flags
+                assertEquals("variant", cached.getFeatureFlag("b", "person-a").getVariant());
+                assertEquals(1, server.decideCalls.get());
+            } finally {
+                cached.shutdown(Duration.ofSeconds(1));
+            }
+
+            var uncached = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                assertTrue(uncached.isFeatureEnabled("a", "person-a"));
+                assertTrue(server.lastDecideBody.contains("\"flag_keys_to_evaluate\":[\"a\"]"));
+            } finally {
+                uncached.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecideResponseTest {
+    private static final Gson GSON = new Gson();
+    private static final String RESPONSE = """
+            {
+              "config": {"enable_collect_everything": true},
+              "featureFlags": {"a": true, "b": "variant", "c": false},
+              "errorsWhileComputingFlags": false,
+              "featureFlagPayloads": {"b": "{\\"x\\": 1}", "c": "unused"}
+            }
+            """;
+
+    @Test
+    void readsAllFlags() throws IOException {
+        var states = read(RESPONSE, null);
+        assertEquals(3, states.keySet().size());
+        assertTrue(states.isEnabled("a"));
+        assertEquals("variant", states.getVariant("b"));
+        assertEquals("{\"x\": 1}", states.get("b").getPayload());
+        assertFalse(states.isEnabled("c"));
+    }
+
+    @Test
+    void skipsOtherFlags() throws IOException {
+        var states = read(RESPONSE, "b");
+        assertEquals(1, states.keySet().size());
+        assertEquals("variant", states.getVariant("b"));
+        assertEquals("{\"x\": 1}", states.get("b").getPayload());
+    }
+
+    @Test
+    void missingFlagsAndPayloads() throws IOException {
+        assertTrue(read("{\"featureFlags\": null}", null).keySet().isEmpty());
+        var states = read("{\"featureFlags\": {\"a\": \"v\"}}", "a");
+        assertEquals("v", states.getVariant("a"));
+        assertNull(states.get("a").getPayload());
+    }
+
+    private static FeatureFlagStates read(String json, String flagKey) throws IOException {
+        return DecideResponse.readStates(GSON, new JsonReader(new StringReader(json)), flagKey);
+    }
+}
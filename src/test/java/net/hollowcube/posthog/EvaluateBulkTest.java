@@ -0,0 +1,105 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluateBulkTest {
+    private static final int COUNT = 10_000;
+
+    @Test
+    void countsMatchConsumerOutput() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{}}")) {
+            var client = client(server);
+            try {
+                var states = new ConcurrentHashMap<String, FeatureFlagState>();
+                var distribution = client.evaluateBulk("multi", ids(), null, states::put);
+                assertEquals("multi", distribution.key());
+                assertEquals(COUNT, distribution.total());
+                assertEquals(COUNT, distribution.enabled());
+                assertEquals(0, distribution.disabled() + distribution.inconclusive());
+                assertEquals(Map.of("a", count(states, "a"), "b", count(states, "b")), distribution.variants());
+                assertEquals(COUNT, states.size());
+                assertEquals(0.5, distribution.variantRate("a"), 0.05);
+
+                // Same results as evaluating one at a time
+                for (int i = 0; i < 100; i++) {
+                    var id = "person-" + i;
+                    assertEquals(client.getFeatureFlag("multi", id).getVariant(), states.get(id).getVariant());
+                }
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void contextAndInconclusive() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{}}")) {
+            var client = client(server);
+            try {
+                var pro = new FeatureFlagContext(null, Map.of("plan", "pro"), null, null, null);
+                var free = new FeatureFlagContext(null, Map.of("plan", "free"), null, null, null);
+                var gated = client.evaluateBulk("pro", ids(), id -> id.endsWith("0") ? pro : free, null);
+                assertEquals(COUNT, gated.total());
+                assertEquals(COUNT / 10, gated.enabled());
+                assertEquals(COUNT - COUNT / 10, gated.disabled());
+
+                // Without the property it is unknown whether the flag matches.
+                assertEquals(COUNT, client.evaluateBulk("pro", ids()).inconclusive());
+
+                // Flags which need remote evaluation are counted, but never sent to PostHog.
+                var continuity = client.evaluateBulk("continuity", ids());
+                assertEquals(COUNT, continuity.inconclusive());
+                assertEquals(0, continuity.enabledRate());
+                assertEquals(0, server.decideCalls.get());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void unknownFlagOrNoDefinitions() {
+        var client = PostHogClient.newBuilder("key").build();
+        try {
+            assertThrows(IllegalStateException.class, () -> client.evaluateBulk("multi", ids()));
+        } finally {
+            client.shutdown(Duration.ofSeconds(1));
+        }
+    }
+
+    private static @NotNull PostHogClient client(@NotNull TestServer server) {
+        var definitions = "{\"flags\":["
+                + flag("multi", "[]", "{\"variants\":[{\"key\":\"a\",\"name\":\"\",\"rollout_percentage\":50},{\"key\":\"b\",\"name\":\"\",\"rollout_percentage\":50}]}", false) + ","
+                + flag("pro", "[{\"key\":\"plan\",\"operator\":\"exact\",\"value\":[\"pro\"],\"type\":\"person\",\"negation\":false}]", "null", false) + ","
+                + flag("continuity", "[]", "null", true) + "]}";
+        var client = PostHogClient.newBuilder("key").endpoint(server.endpoint())
+                .featureFlagsBootstrap(definitions.getBytes(StandardCharsets.UTF_8)).build();
+        assertThrows(IllegalArgumentException.class, () -> client.evaluateBulk("missing", ids()));
+        return client;
+    }
+
+    private static @NotNull List<String> ids() {
+        var ids = new ArrayList<String>(COUNT);
+        for (int i = 0; i < COUNT; i++) ids.add("person-" + i);
+        return ids;
+    }
+
+    private static long count(@NotNull Map<String, FeatureFlagState> states, @NotNull String variant) {
+        return states.values().stream().filter(state -> variant.equals(state.getVariant())).count();
+    }
+
+    private static @NotNull String flag(@NotNull String key, @NotNull String properties, @NotNull String multivariate, boolean continuity) {
+        return "{\"key\":\"" + key + "\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":" + properties + ",\"rollout_percentage\":100}],"
+                + "\"payloads\":{},\"multivariate\":" + multivariate + "},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":" + continuity + "}";
+    }
+}
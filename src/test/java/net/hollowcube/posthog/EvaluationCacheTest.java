@@ -0,0 +1,80 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationCacheTest {
+
+    @Test
+    void hitAndMiss() {
+        var cache = new EvaluationCache(100);
+        var key = key("person-a");
+        assertNull(cache.get(key, 1));
+        cache.put(key, FeatureFlagState.ENABLED, 1);
+        assertSame(FeatureFlagState.ENABLED, cache.get(key, 1));
+        assertNull(cache.get(key("person-b"), 1));
+
+        var stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+    }
+
+    @Test
+    void contextIsPartOfKey() {
+        var cache = new EvaluationCache(100);
+        var pro = EvaluationCache.Key.of("flag", "person-a", new FeatureFlagContext(null, Map.of("plan", "pro"), null, null, null));
+        cache.put(pro, FeatureFlagState.ENABLED, 1);
+        assertSame(FeatureFlagState.ENABLED, cache.get(
+                EvaluationCache.Key.of("flag", "person-a", new FeatureFlagContext(null, Map.of("plan", "pro"), null, null, null)), 1));
+        assertNull(cache.get(
+                EvaluationCache.Key.of("flag", "person-a", new FeatureFlagContext(null, Map.of("plan", "free"), null, null, null)), 1));
+    }
+
+    @Test
+    void newerVersionInvalidates() {
+        var cache = new EvaluationCache(100);
+        var key = key("person-a");
+        cache.put(key, FeatureFlagState.ENABLED, 1);
+        assertNull(cache.get(key, 2));
+        // The stale entry was dropped rather than kept for the old version.
+        assertNull(cache.get(key, 1));
+
+        // Also for promoted entries
+        cache.put(key, FeatureFlagState.ENABLED, 2);
+        assertNotNull(cache.get(key, 2));
+        assertNotNull(cache.get(key, 2));
+        assertNull(cache.get(key, 3));
+    }
+
+    @Test
+    void neverExceedsMaxSize() {
+        for (int maxSize : new int[]{1, 5, 16, 31, 100}) {
+            var cache = new EvaluationCache(maxSize);
+            for (int i = 0; i < 1000; i++) {
+                var key = key("person-" + i);
+                cache.put(key, FeatureFlagState.ENABLED, 1);
+                cache.get(key, 1); // Promote some entries as well
+            }
+            assertTrue(cache.stats().size() <= maxSize, maxSize + ": " + cache.stats().size());
+            assertTrue(cache.stats().evictions() > 0);
+        }
+    }
+
+    @Test
+    void hotEntriesSurviveScan() {
+        var cache = new EvaluationCache(320);
+        var hot = key("hot");
+        cache.put(hot, FeatureFlagState.ENABLED, 1);
+        assertNotNull(cache.get(hot, 1)); // Promoted to protected
+
+        for (int i = 0; i < 10_000; i++) cache.put(key("cold-" + i), FeatureFlagState.DISABLED, 1);
+        assertSame(FeatureFlagState.ENABLED, cache.get(hot, 1));
+    }
+
+    private static EvaluationCache.Key key(String distinctId) {
+        return EvaluationCache.Key.of("flag", distinctId, FeatureFlagContext.EMPTY);
+    }
+}
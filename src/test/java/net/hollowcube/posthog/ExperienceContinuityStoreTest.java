@@ -0,0 +1,94 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExperienceContinuityStoreTest {
+
+    @Test
+    void putAndGet() {
+        var store = ExperienceContinuityStore.open(100, null);
+        assertNull(store.get("flag", "person-a"));
+
+        assertTrue(store.put("flag", "person-a", new FeatureFlagState(true, "test", null), 10));
+        assertTrue(store.put("flag", "person-b", FeatureFlagState.DISABLED, 20));
+        assertEquals(new ExperienceContinuityStore.Entry(true, "test", 10), store.get("flag", "person-a"));
+        assertEquals(new ExperienceContinuityStore.Entry(false, null, 20), store.get("flag", "person-b"));
+        assertNull(store.get("other-flag", "person-a"));
+
+        assertTrue(store.put("flag", "person-a", FeatureFlagState.ENABLED, 30));
+        assertEquals(new ExperienceContinuityStore.Entry(true, null, 30), store.get("flag", "person-a"));
+    }
+
+    @Test
+    void rejectsUnstorableResults() {
+        var store = ExperienceContinuityStore.open(8, null);
+        assertFalse(store.put("flag", "person-a", new FeatureFlagState(false, null, "reason"), 0));
+        assertFalse(store.put("flag", "person-a", new FeatureFlagState(true, "v".repeat(ExperienceContinuityStore.MAX_VARIANT_BYTES + 1), null), 0));
+        assertNull(store.get("flag", "person-a"));
+    }
+
+    @Test
+    void storedStateIgnoredWhenDefinitionChanged() {
+        var entry = new ExperienceContinuityStore.Entry(true, "test", 10);
+        assertEquals("test", flag(true, "test", "control").storedStateOf(entry).getVariant());
+
+        // Turned off, so the remembered result must not be served
+        assertNull(flag(false, "test", "control").storedStateOf(entry));
+        // The variant was removed
+        assertNull(flag(true, "control").storedStateOf(entry));
+        assertNull(flag(true).storedStateOf(entry));
+        // Stored before the flag became multivariate
+        assertNull(flag(true, "control").storedStateOf(new ExperienceContinuityStore.Entry(true, null, 10)));
+        assertSame(FeatureFlagState.DISABLED, flag(true, "control").storedStateOf(new ExperienceContinuityStore.Entry(false, null, 10)));
+    }
+
+    @Test
+    void evictsOldestInBucket() {
+        var store = ExperienceContinuityStore.open(ExperienceContinuityStore.WAYS, null);
+        assertEquals(ExperienceContinuityStore.WAYS, store.capacity());
+        for (int i = 0; i <= ExperienceContinuityStore.WAYS; i++)
+            store.put("flag", "person-" + i, FeatureFlagState.ENABLED, 100 + i);
+
+        // The first entry was the oldest
+        assertNull(store.get("flag", "person-0"));
+        for (int i = 1; i <= ExperienceContinuityStore.WAYS; i++)
+            assertNotNull(store.get("flag", "person-" + i));
+    }
+
+    @Test
+    void persistsToFile() throws IOException {
+        var file = Files.createTempFile("posthog-continuity", ".bin");
+        try {
+            var store = ExperienceContinuityStore.open(100, file);
+            store.put("flag", "person-a", new FeatureFlagState(true, "test", null), 10);
+            store.flush();
+
+            var reopened = ExperienceContinuityStore.open(100, file);
+            assertEquals(new ExperienceContinuityStore.Entry(true, "test", 10), reopened.get("flag", "person-a"));
+
+            // Different capacity discards the contents
+            var resized = ExperienceContinuityStore.open(1000, file);
+            assertNull(resized.get("flag", "person-a"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static CompiledFlag flag(boolean active, String... variants) {
+        var multivariate = new StringBuilder();
+        for (var variant : variants) {
+            if (multivariate.length() > 0) multivariate.append(',');
+            multivariate.append("{\"key\":\"").append(variant).append("\",\"name\":\"\",\"rollout_percentage\":").append(100 / variants.length).append('}');
+        }
+        var raw = "{\"key\":\"flag\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":100}],\"payloads\":{},"
+                + "\"multivariate\":" + (variants.length == 0 ? "null" : "{\"variants\":[" + multivariate + "]}")
+                + "},\"deleted\":false,\"active\":" + active + ",\"ensure_experience_continuity\":true}";
+        return CompiledFlag.compile(new Gson().fromJson(raw, FeatureFlagsResponse.Flag.class));
+    }
+}
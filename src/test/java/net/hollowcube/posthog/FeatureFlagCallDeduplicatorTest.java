@@ -0,0 +1,59 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagCallDeduplicatorTest {
+
+    @Test
+    void firstCallTracked() {
+        var dedup = new FeatureFlagCallDeduplicator(Duration.ofHours(1), 100);
+        assertTrue(dedup.track("person-a", "flag"));
+        assertFalse(dedup.track("person-a", "flag"));
+    }
+
+    @Test
+    void distinctCombinations() {
+        var dedup = new FeatureFlagCallDeduplicator(Duration.ofHours(1), 100);
+        assertTrue(dedup.track("person-a", "flag"));
+        assertTrue(dedup.track("person-b", "flag"));
+        assertTrue(dedup.track("person-a", "other-flag"));
+    }
+
+    @Test
+    void noConcatenationCollision() {
+        assertNotEquals(FeatureFlagCallDeduplicator.fingerprint("ab", "c"), FeatureFlagCallDeduplicator.fingerprint("a", "bc"));
+
+        var dedup = new FeatureFlagCallDeduplicator(Duration.ofHours(1), 100);
+        assertTrue(dedup.track("ab", "c"));
+        assertTrue(dedup.track("a", "bc"));
+    }
+
+    @Test
+    void rememberedForPreviousGeneration() {
+        var dedup = new FeatureFlagCallDeduplicator(Duration.ofHours(1), 10);
+        assertTrue(dedup.track("person-a", "flag"));
+        // Fill the current generation, causing a rotation. The combination is still in the previous generation.
+        for (int i = 0; i < 10; i++) assertTrue(dedup.track("person-" + i, "flag"));
+        assertFalse(dedup.track("person-a", "flag"));
+    }
+
+    @Test
+    void forgottenAfterTwoGenerations() {
+        var dedup = new FeatureFlagCallDeduplicator(Duration.ofHours(1), 10);
+        assertTrue(dedup.track("person-a", "flag"));
+        for (int i = 0; i < 20; i++) assertTrue(dedup.track("person-" + i, "flag"));
+        assertTrue(dedup.track("person-a", "flag"));
+    }
+
+    @Test
+    void forgottenAfterWindow() {
+        var dedup = new FeatureFlagCallDeduplicator(Duration.ZERO, 10);
+        assertTrue(dedup.track("person-a", "flag"));
+        dedup.track("person-b", "flag"); // Rotates "person-a" to the previous generation
+        assertTrue(dedup.track("person-a", "flag"));
+    }
+}
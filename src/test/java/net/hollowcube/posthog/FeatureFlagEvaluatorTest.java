@@ -7,6 +7,8 @@ import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
 import java.util.Objects;
 
@@ -56,6 +58,17 @@ class FeatureFlagEvaluatorTest {
         assertEquals("variant-b", resultB.getVariant());
     }
 
+    @Test
+    void compiledFlagReturnsSameState() {
+        var raw = "{\"id\":107923,\"team_id\":72878,\"name\":\"\",\"key\":\"multivariant-test\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":100}],\"payloads\":{\"variant-a\":\"{\\\"a\\\": \\\"has_a_payload\\\"}\"},\"multivariate\":{\"variants\":[{\"key\":\"variant-a\",\"name\":\"\",\"rollout_percentage\":50},{\"key\":\"variant-b\",\"name\":\"\",\"rollout_percentage\":50}]}},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":false}";
+        var compiled = CompiledFlag.compile(GSON.fromJson(raw, FeatureFlagsResponse.Flag.class));
+        var first = FeatureFlagEvaluator.evaluateFeatureFlag(GSON, compiled, "variant-a-user-r", FeatureFlagContext.EMPTY);
+        var second = FeatureFlagEvaluator.evaluateFeatureFlag(GSON, compiled, "variant-a-user-r", FeatureFlagContext.EMPTY);
+        assertEquals("variant-a", first.getVariant());
+        assertEquals("{\"a\": \"has_a_payload\"}", first.getPayload());
+        assertSame(first, second);
+    }
+
     @Test
     void stringPropertyMatch() {
         var raw = "{\"id\":107198,\"team_id\":72878,\"name\":\"\",\"key\":\"test\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[{\"key\":\"username\",\"type\":\"person\",\"value\":[\"person-a\",\"person-b\"],\"operator\":\"exact\"}],\"rollout_percentage\":100}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":false}";
@@ -127,14 +140,89 @@ class FeatureFlagEvaluatorTest {
         }
 
         @Test
-        void isNotSetInconclusive() {
+        void isNotSet() {
             var property = "{\"key\":\"username\",\"type\":\"person\",\"value\":[\"person-a\",\"person-b\"],\"operator\":\"is_not_set\"}";
-            assertTrue(test(property, Map.of("username", "person-z")).isInconclusive());
+            assertFalse(test(property, Map.of("username", "person-z")).isEnabled());
+            // A missing property may just not have been given, unless the properties are declared complete.
+            assertTrue(test(property, Map.of("other", "person-z")).isInconclusive());
+            assertTrue(test(property, Map.of("other", "person-z"), true).isEnabled());
+            assertFalse(test(property, Map.of("username", "person-z"), true).isEnabled());
+        }
+
+        @Test
+        void missingPropertyInconclusive() {
+            var property = "{\"key\":\"username\",\"type\":\"person\",\"value\":\"person-a\",\"operator\":\"exact\"}";
+            var result = test(property, Map.of("other", "person-a"));
+            assertTrue(result.isInconclusive());
+            assertEquals("Cannot match against property without a given value (username)", result.getInconclusiveReason());
+        }
+
+        @Test
+        void negation() {
+            var property = "{\"key\":\"username\",\"type\":\"person\",\"value\":\"person-a\",\"operator\":\"exact\",\"negation\":true}";
+            assertFalse(test(property, Map.of("username", "person-a")).isEnabled());
+            assertTrue(test(property, Map.of("username", "person-b")).isEnabled());
+        }
+
+        @Test
+        void unknownOperatorInconclusive() {
+            var property = "{\"key\":\"username\",\"type\":\"person\",\"value\":\"a\",\"operator\":\"something_new\"}";
+            assertTrue(test(property, Map.of("username", "a")).isInconclusive());
+        }
+
+        @Test
+        void dateBeforeAbsolute() {
+            var property = "{\"key\":\"joined\",\"type\":\"person\",\"value\":\"2024-06-01\",\"operator\":\"is_date_before\"}";
+            assertTrue(test(property, Map.of("joined", "2024-05-31T23:59:59Z")).isEnabled());
+            assertTrue(test(property, Map.of("joined", "2024-01-01 12:00:00")).isEnabled());
+            assertFalse(test(property, Map.of("joined", "2024-06-01T00:00:01+00:00")).isEnabled());
+            assertTrue(test(property, Map.of("joined", "not a date")).isInconclusive());
+        }
+
+        @Test
+        void dateAfterRelative() {
+            var property = "{\"key\":\"joined\",\"type\":\"person\",\"value\":\"-7d\",\"operator\":\"is_date_after\"}";
+            assertTrue(test(property, Map.of("joined", Instant.now().minus(Duration.ofDays(1)).toString())).isEnabled());
+            assertFalse(test(property, Map.of("joined", Instant.now().minus(Duration.ofDays(8)).toString())).isEnabled());
+        }
+
+        @Test
+        void relativeDateOutOfRange() {
+            var property = "{\"key\":\"joined\",\"type\":\"person\",\"value\":\"-10000d\",\"operator\":\"is_date_after\"}";
+            assertTrue(test(property, Map.of("joined", "2024-01-01")).isInconclusive());
+        }
+
+        @Test
+        void semverComparison() {
+            var property = "{\"key\":\"version\",\"type\":\"person\",\"value\":\"1.10.0\",\"operator\":\"semver_gte\"}";
+            assertTrue(test(property, Map.of("version", "1.10.0")).isEnabled());
+            assertTrue(test(property, Map.of("version", "v2.0")).isEnabled());
+            assertFalse(test(property, Map.of("version", "1.9.9")).isEnabled());
+            assertTrue(test(property, Map.of("version", "latest")).isInconclusive());
+        }
+
+        @Test
+        void semverRanges() {
+            var tilde = "{\"key\":\"version\",\"type\":\"person\",\"value\":\"1.2.3\",\"operator\":\"semver_tilde\"}";
+            assertTrue(test(tilde, Map.of("version", "1.2.9")).isEnabled());
+            assertFalse(test(tilde, Map.of("version", "1.3.0")).isEnabled());
+
+            var caret = "{\"key\":\"version\",\"type\":\"person\",\"value\":\"0.2.3\",\"operator\":\"semver_caret\"}";
+            assertTrue(test(caret, Map.of("version", "0.2.5")).isEnabled());
+            assertFalse(test(caret, Map.of("version", "0.3.0")).isEnabled());
+
+            var wildcard = "{\"key\":\"version\",\"type\":\"person\",\"value\":\"1.*\",\"operator\":\"semver_wildcard\"}";
+            assertTrue(test(wildcard, Map.of("version", "1.99.0")).isEnabled());
+            assertFalse(test(wildcard, Map.of("version", "2.0.0")).isEnabled());
         }
 
         private @NotNull FeatureFlagState test(@NotNull String property, @NotNull Map<String, Object> person) {
+            return test(property, person, false);
+        }
+
+        private @NotNull FeatureFlagState test(@NotNull String property, @NotNull Map<String, Object> person, boolean complete) {
             var prop = GSON.fromJson(property, FeatureFlagsResponse.Property.class);
-            return FeatureFlagEvaluator.matchProperty(prop, GSON.toJsonTree(person).getAsJsonObject());
+            return FeatureFlagEvaluator.matchProperty(prop, GSON.toJsonTree(person).getAsJsonObject(), complete);
         }
     }
 
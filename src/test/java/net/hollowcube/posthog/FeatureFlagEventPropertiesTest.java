@@ -0,0 +1,111 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagEventPropertiesTest {
+    private static final Gson GSON = new Gson();
+
+    @Test
+    void attachesLocalAndRecentRemoteResults() throws Exception {
+        var definitions = "{\"flags\":[" + flag("on", 100, false) + "," + flag("off", 0, false) + "," + flag("continuity", 100, true) + "]}";
+        try (var server = new TestServer("{\"featureFlags\":{\"continuity\":\"variant\"}}")) {
+            var client = PostHogClient.newBuilder("key")
+                    .endpoint(server.endpoint())
+                    .featureFlagsBootstrap(definitions.getBytes(StandardCharsets.UTF_8))
+                    .sendFeatureFlagEvents(false)
+                    .build();
+            try {
+                client.capture("person-a", "event", Map.of("$feature/off", "mine"), true);
+                client.flush();
+                var properties = eventProperties(server.nextBatch());
+                assertTrue(properties.get("$feature/on").getAsBoolean());
+                // Properties given with the event are not overwritten
+                assertEquals("mine", properties.get("$feature/off").getAsString());
+                // Needs remote evaluation, which is never done for events
+                assertFalse(properties.has("$feature/continuity"));
+                assertEquals(GSON.toJsonTree(new String[]{"on"}), properties.get("$active_feature_flags"));
+                assertFalse(properties.has("$send_feature_flags"));
+                assertEquals(0, server.decideCalls.get());
+
+                // A recent remote result is used for flags which are inconclusive locally
+                assertEquals("variant", client.getFeatureFlag("continuity", "person-a").getVariant());
+                client.capture("person-a", "event", Map.of(), true);
+                client.flush();
+                properties = eventProperties(server.nextBatch());
+                assertEquals("variant", properties.get("$feature/continuity").getAsString());
+                assertEquals(1, server.decideCalls.get());
+
+                // But only for the same distinct id
+                client.capture("person-b", "event", Map.of(), true);
+                client.flush();
+                assertFalse(eventProperties(server.nextBatch()).has("$feature/continuity"));
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void remoteResultsRememberedOnlyOnceRequested() throws Exception {
+        var definitions = "{\"flags\":[" + flag("continuity", 100, true) + "]}";
+        try (var server = new TestServer("{\"featureFlags\":{\"continuity\":\"variant\"}}")) {
+            var client = PostHogClient.newBuilder("key")
+                    .endpoint(server.endpoint())
+                    .featureFlagsBootstrap(definitions.getBytes(StandardCharsets.UTF_8))
+                    .sendFeatureFlagEvents(false)
+                    .build();
+            try {
+                // No event has asked for feature flags yet, so the result is not kept
+                assertEquals("variant", client.getFeatureFlag("continuity", "person-a").getVariant());
+                client.capture("person-a", "event", Map.of(), true);
+                client.flush();
+                assertFalse(eventProperties(server.nextBatch()).has("$feature/continuity"));
+
+                assertEquals("variant", client.getFeatureFlag("continuity", "person-b").getVariant());
+                client.capture("person-b", "event", Map.of(), true);
+                client.flush();
+                assertEquals("variant", eventProperties(server.nextBatch()).get("$feature/continuity").getAsString());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void notAttachedUnlessRequested() throws Exception {
+        var definitions = "{\"flags\":[" + flag("on", 100, false) + "]}";
+        try (var server = new TestServer("{\"featureFlags\":{}}")) {
+            var client = PostHogClient.newBuilder("key")
+                    .endpoint(server.endpoint())
+                    .featureFlagsBootstrap(definitions.getBytes(StandardCharsets.UTF_8))
+                    .build();
+            try {
+                client.capture("person-a", "event", Map.of());
+                client.flush();
+                assertFalse(eventProperties(server.nextBatch()).has("$feature/on"));
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    private static @NotNull JsonObject eventProperties(@NotNull String batch) {
+        var events = GSON.fromJson(batch, JsonObject.class).getAsJsonArray("batch");
+        assertEquals(1, events.size());
+        return events.get(0).getAsJsonObject().getAsJsonObject("properties");
+    }
+
+    private static @NotNull String flag(@NotNull String key, int rolloutPercentage, boolean experienceContinuity) {
+        return "{\"key\":\"" + key + "\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":" + rolloutPercentage + "}],"
+                + "\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":" + experienceContinuity + "}";
+    }
+}
@@ -0,0 +1,87 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagPollingTest {
+
+    @Test
+    void notModifiedResponse() throws Exception {
+        try (var server = new TestServer("{}")) {
+            server.flagDefinitions = definitions(100);
+            server.etag = "\"v1\"";
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .awaitFeatureFlagsOnBuild(Duration.ofSeconds(10)).build();
+            try {
+                assertTrue(client.isFeatureEnabled("flag", "person-a"));
+                assertEquals(0, server.notModifiedResponses.get());
+
+                // The second request sends the validator and the server has nothing new.
+                client.reloadFeatureFlags();
+                awaitTrue(() -> server.notModifiedResponses.get() == 1);
+                assertTrue(client.isFeatureEnabled("flag", "person-a"));
+
+                // A new validator means new content.
+                List<FeatureFlagChanges> changes = new CopyOnWriteArrayList<>();
+                client.addFeatureFlagChangeListener(changes::add);
+                server.flagDefinitions = definitions(0);
+                server.etag = "\"v2\"";
+                client.reloadFeatureFlags();
+                awaitTrue(() -> changes.stream().anyMatch(change -> change.changed().equals(Set.of("flag"))));
+                assertFalse(client.isFeatureEnabled("flag", "person-a"));
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void unchangedPayloadDoesNotReplaceFlags() throws Exception {
+        try (var server = new TestServer("{}")) {
+            server.flagDefinitions = definitions(100);
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .awaitFeatureFlagsOnBuild(Duration.ofSeconds(10)).build();
+            try {
+                // The listener may also see the first load, which completes readiness before notifying.
+                List<FeatureFlagChanges> changes = new CopyOnWriteArrayList<>();
+                client.addFeatureFlagChangeListener(changes::add);
+
+                // Without a validator the payload is downloaded again, but it hashes the same.
+                client.reloadFeatureFlags();
+                awaitTrue(() -> server.flagDefinitionCalls.get() == 2);
+
+                // Loads happen in order, so once this one is applied the previous one was as well.
+                server.flagDefinitions = definitions(0);
+                client.reloadFeatureFlags();
+                awaitTrue(() -> changes.stream().anyMatch(change -> change.changed().equals(Set.of("flag"))));
+                assertEquals(3, server.flagDefinitionCalls.get());
+                assertEquals(2, changes.get(changes.size() - 1).version());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    static void awaitTrue(@NotNull BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private static @NotNull String definitions(int rolloutPercentage) {
+        return "{\"flags\":[{\"key\":\"flag\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":"
+                + rolloutPercentage + "}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true}],"
+                + "\"group_type_mapping\":{},\"cohorts\":{}}";
+    }
+}
@@ -0,0 +1,100 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+import static net.hollowcube.posthog.FeatureFlagPollingTest.awaitTrue;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagReadinessTest {
+
+    @Test
+    void readyAfterFirstFetch() throws Exception {
+        try (var server = new TestServer("{}")) {
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal").build();
+            try {
+                awaitTrue(() -> server.flagDefinitionCalls.get() == 1);
+                assertFalse(client.awaitFeatureFlagsLoaded(Duration.ofMillis(100)));
+                assertFalse(client.featureFlagsReady().isDone());
+                assertNull(client.getFeatureFlagsAge());
+
+                server.flagDefinitions = definitions();
+                server.etag = "\"v1\"";
+                client.reloadFeatureFlags();
+                assertTrue(client.awaitFeatureFlagsLoaded(Duration.ofSeconds(10)));
+                assertTrue(client.featureFlagsReady().isDone());
+                var age = client.getFeatureFlagsAge();
+                assertNotNull(age);
+                assertTrue(age.compareTo(Duration.ofSeconds(10)) < 0, age.toString());
+
+                // Confirming the definitions are unchanged also resets their age.
+                Thread.sleep(200);
+                client.reloadFeatureFlags();
+                awaitTrue(() -> server.notModifiedResponses.get() == 1);
+                awaitTrue(() -> client.getFeatureFlagsAge().compareTo(Duration.ofMillis(200)) < 0);
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void buildWaitsUntilTimeout() throws Exception {
+        try (var server = new TestServer("{}")) {
+            var start = System.nanoTime();
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .awaitFeatureFlagsOnBuild(Duration.ofMillis(200)).build();
+            try {
+                assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofMillis(200)) >= 0);
+                assertFalse(client.featureFlagsReady().isDone());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+
+            server.flagDefinitions = definitions();
+            var loaded = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .awaitFeatureFlagsOnBuild(Duration.ofSeconds(10)).build();
+            try {
+                assertTrue(loaded.featureFlagsReady().isDone());
+                assertTrue(loaded.isFeatureEnabled("flag", "person-a"));
+            } finally {
+                loaded.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void localEvaluationNotEnabled() {
+        var client = PostHogClient.newBuilder("key").build();
+        try {
+            var e = assertThrows(ExecutionException.class, () -> client.featureFlagsReady().get());
+            assertInstanceOf(UnsupportedOperationException.class, e.getCause());
+            assertThrows(UnsupportedOperationException.class, () -> client.awaitFeatureFlagsLoaded(Duration.ofSeconds(1)));
+            assertNull(client.getFeatureFlagsAge());
+        } finally {
+            client.shutdown(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    void interruptedWhileWaiting() throws Exception {
+        try (var server = new TestServer("{}")) {
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal").build();
+            try {
+                Thread.currentThread().interrupt();
+                assertFalse(client.awaitFeatureFlagsLoaded(Duration.ofSeconds(10)));
+                assertTrue(Thread.interrupted());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    private static @NotNull String definitions() {
+        return "{\"flags\":[{\"key\":\"flag\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":100}],"
+                + "\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true}],\"group_type_mapping\":{},\"cohorts\":{}}";
+    }
+}
@@ -0,0 +1,67 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagSnapshotTest {
+
+    @Test
+    void firstVersionAddsAllFlags() {
+        var snapshot = snapshot(1, flag("a", 100), flag("b", 100));
+        var changes = snapshot.diff(null);
+        assertEquals(1, changes.version());
+        assertEquals(Set.of("a", "b"), changes.added());
+        assertTrue(changes.removed().isEmpty());
+        assertTrue(changes.changed().isEmpty());
+    }
+
+    @Test
+    void unchangedFlagsAreNotReported() {
+        var previous = snapshot(1, flag("a", 100), flag("b", 100));
+        var changes = snapshot(2, flag("a", 100), flag("b", 100)).diff(previous);
+        assertTrue(changes.added().isEmpty());
+        assertTrue(changes.removed().isEmpty());
+        assertTrue(changes.changed().isEmpty());
+    }
+
+    @Test
+    void addedRemovedAndChanged() {
+        var previous = snapshot(1, flag("a", 100), flag("b", 100));
+        var changes = snapshot(2, flag("a", 50), flag("c", 100)).diff(previous);
+        assertEquals(2, changes.version());
+        assertEquals(Set.of("c"), changes.added());
+        assertEquals(Set.of("b"), changes.removed());
+        assertEquals(Set.of("a"), changes.changed());
+        assertTrue(changes.affects("a"));
+        assertFalse(changes.affects("d"));
+    }
+
+    @Test
+    void cohortPropertyDoesNotPreventLoading() {
+        // Cohort filters are sent without an operator.
+        var raw = "{\"key\":\"cohort-gated\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[{\"key\":\"id\",\"type\":\"cohort\",\"value\":98}],\"rollout_percentage\":100}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":false}";
+        var snapshot = snapshot(1, GSON.fromJson(raw, FeatureFlagsResponse.Flag.class), flag("a", 100));
+        assertEquals(Set.of("cohort-gated", "a"), snapshot.flags().keySet());
+
+        var state = FeatureFlagEvaluator.evaluateFeatureFlag(GSON, snapshot.flags().get("cohort-gated"), "person-a", FeatureFlagContext.EMPTY);
+        assertTrue(state.isInconclusive());
+    }
+
+    private static final Gson GSON = new GsonBuilder().disableJdkUnsafe().create();
+
+    private static @NotNull FeatureFlagsResponse.Flag flag(@NotNull String key, int rolloutPercentage) {
+        var raw = "{\"id\":107924,\"team_id\":72878,\"name\":\"\",\"key\":\"" + key + "\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":" + rolloutPercentage + "}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":false}";
+        return GSON.fromJson(raw, FeatureFlagsResponse.Flag.class);
+    }
+
+    private static @NotNull FeatureFlagSnapshot snapshot(long version, @NotNull FeatureFlagsResponse.Flag... flags) {
+        return FeatureFlagSnapshot.compile(version, List.of(flags), new byte[0]);
+    }
+}
@@ -0,0 +1,72 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagTelemetryTest {
+
+    @Test
+    void countsPerFlag() {
+        var telemetry = new FeatureFlagTelemetry();
+        telemetry.recordLocal("a", FeatureFlagState.ENABLED);
+        telemetry.recordLocal("a", new FeatureFlagState(false, null, "reason"));
+        telemetry.recordLocal("a", new FeatureFlagState(false, null, "reason"));
+        telemetry.recordRemoteFallback("a");
+        telemetry.recordRemoteError("a");
+        telemetry.recordRemoteFallback("b");
+
+        var stats = telemetry.stats();
+        assertEquals(2, stats.size());
+        assertEquals(3, stats.get("a").localEvaluations());
+        assertEquals(Map.of("reason", 2L), stats.get("a").inconclusiveReasons());
+        assertEquals(1, stats.get("a").remoteFallbacks());
+        assertEquals(1, stats.get("a").remoteErrors());
+        assertEquals(0, stats.get("b").localEvaluations());
+        assertEquals(1, stats.get("b").remoteFallbacks());
+    }
+
+    @Test
+    void latencyHistogram() {
+        assertEquals(0, FeatureFlagStats.latencyBucket(500));
+        assertEquals(1, FeatureFlagStats.latencyBucket(1_500));
+        assertEquals(FeatureFlagStats.LATENCY_BUCKETS - 1, FeatureFlagStats.latencyBucket(Long.MAX_VALUE));
+
+        var telemetry = new FeatureFlagTelemetry();
+        for (int i = 0; i < 99; i++) telemetry.recordLatency("a", 500);
+        telemetry.recordLatency("a", 3_000_000);
+
+        var stats = telemetry.stats().get("a");
+        assertEquals(Duration.ofNanos(1000), stats.latencyPercentile(0.5));
+        assertEquals(Duration.ofNanos(1000L << 12), stats.latencyPercentile(1));
+        assertNull(FeatureFlagStats.latencyBucketUpperBound(FeatureFlagStats.LATENCY_BUCKETS - 1));
+    }
+
+    @Test
+    void unknownFlagsShareCounters() {
+        var definitions = "{\"flags\":[{\"key\":\"flag\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],"
+                + "\"rollout_percentage\":100}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true}],"
+                + "\"group_type_mapping\":{},\"cohorts\":{}}";
+        var client = PostHogClient.newBuilder("key")
+                .featureFlagsBootstrap(definitions.getBytes(StandardCharsets.UTF_8))
+                .allowRemoteFeatureFlagEvaluation(false)
+                .featureFlagTelemetry(true)
+                .build();
+        try {
+            client.getFeatureFlag("flag", "person-a");
+            for (int i = 0; i < 100; i++) client.getFeatureFlag("missing-" + i, "person-a");
+
+            var stats = client.getFeatureFlagStats();
+            assertEquals(Set.of("flag", FeatureFlagStats.UNKNOWN_FLAG), stats.keySet());
+            var unknown = stats.get(FeatureFlagStats.UNKNOWN_FLAG).latencyHistogram();
+            assertEquals(100, unknown.stream().mapToLong(Long::longValue).sum());
+        } finally {
+            client.shutdown(Duration.ofSeconds(1));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static net.hollowcube.posthog.FeatureFlagPollingTest.awaitTrue;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagsBootstrapTest {
+
+    @Test
+    void bootstrapFromBytes() {
+        var client = PostHogClient.newBuilder("key")
+                .featureFlagsBootstrap(definitions(100).getBytes(StandardCharsets.UTF_8))
+                .allowRemoteFeatureFlagEvaluation(false)
+                .build();
+        try {
+            assertTrue(client.featureFlagsReady().isDone());
+            assertTrue(client.isFeatureEnabled("flag", "person-a"));
+            // The age of bytes is unknown, so they are reported as fetched at the epoch.
+            assertTrue(client.getFeatureFlagsAge().compareTo(Duration.between(Instant.EPOCH, Instant.now()).minusMinutes(1)) > 0);
+        } finally {
+            client.shutdown(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    void bootstrapFromFile() throws Exception {
+        var file = Files.createTempFile("posthog-bootstrap", ".json");
+        try {
+            Files.writeString(file, definitions(100));
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofHours(1))));
+            var client = PostHogClient.newBuilder("key")
+                    .featureFlagsBootstrap(file)
+                    .allowRemoteFeatureFlagEvaluation(false)
+                    .build();
+            try {
+                assertTrue(client.isFeatureEnabled("flag", "person-a"));
+                var age = client.getFeatureFlagsAge();
+                assertNotNull(age);
+                assertTrue(age.compareTo(Duration.ofMinutes(59)) > 0 && age.compareTo(Duration.ofMinutes(61)) < 0, age.toString());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void invalidBootstrapIsIgnored() {
+        var client = PostHogClient.newBuilder("key")
+                .featureFlagsBootstrap("not json".getBytes(StandardCharsets.UTF_8))
+                .build();
+        try {
+            assertNull(client.getFeatureFlagsAge());
+            assertThrows(UnsupportedOperationException.class, () -> client.awaitFeatureFlagsLoaded(Duration.ZERO));
+        } finally {
+            client.shutdown(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    void snapshotFileRoundTrip() throws Exception {
+        var dir = Files.createTempDirectory("posthog-snapshot");
+        var file = dir.resolve("flags.json");
+        try (var server = new TestServer("{}")) {
+            server.flagDefinitions = definitions(100);
+            var first = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .featureFlagsSnapshotFile(file)
+                    .awaitFeatureFlagsOnBuild(Duration.ofSeconds(10))
+                    .build();
+            try {
+                awaitTrue(() -> Files.exists(file));
+                assertEquals(definitions(100), Files.readString(file));
+
+                // Replaced once the definitions change, through a temporary file next to it.
+                server.flagDefinitions = definitions(0);
+                first.reloadFeatureFlags();
+                awaitTrue(() -> !first.isFeatureEnabled("flag", "person-a"));
+                awaitTrue(() -> definitions(0).equals(readQuietly(file)));
+                assertFalse(Files.exists(dir.resolve("flags.json.tmp")));
+            } finally {
+                first.shutdown(Duration.ofSeconds(1));
+            }
+
+            // The next client starts from the file, even though PostHog is unavailable now.
+            server.flagDefinitions = null;
+            var next = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .featureFlagsSnapshotFile(file)
+                    .allowRemoteFeatureFlagEvaluation(false)
+                    .build();
+            try {
+                assertTrue(next.featureFlagsReady().isDone());
+                assertEquals(1, next.getAllFeatureFlags("person-a").keySet().size());
+                assertFalse(next.isFeatureEnabled("flag", "person-a"));
+                // A failed fetch does not remove the file
+                awaitTrue(() -> server.flagDefinitionCalls.get() >= 3);
+                assertEquals(definitions(0), Files.readString(file));
+            } finally {
+                next.shutdown(Duration.ofSeconds(1));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static String readQuietly(@NotNull Path file) {
+        try {
+            return Files.readString(file);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static @NotNull String definitions(int rolloutPercentage) {
+        return "{\"flags\":[{\"key\":\"flag\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":"
+                + rolloutPercentage + "}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true}],"
+                + "\"group_type_mapping\":{},\"cohorts\":{}}";
+    }
+}
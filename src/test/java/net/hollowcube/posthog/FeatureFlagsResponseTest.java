@@ -0,0 +1,67 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureFlagsResponseTest {
+    private static final Gson GSON = new GsonBuilder().disableJdkUnsafe().create();
+
+    @Test
+    void readsFlagsInOrder() throws IOException {
+        var flags = read("{\"flags\":[" + flag("a") + "," + flag("b") + "]}");
+        assertEquals(List.of("a", "b"), flags.stream().map(FeatureFlagsResponse.Flag::key).toList());
+        assertEquals(100, flags.get(0).filters().groups().get(0).rolloutPercentage().intValue());
+    }
+
+    @Test
+    void skipsOtherFields() throws IOException {
+        var flags = read("""
+                {
+                  "group_type_mapping": {"0": "company"},
+                  "cohorts": {"1": {"type": "AND", "values": [{"nested": [1, 2, {"a": null}]}]}},
+                  "flags": [%s],
+                  "unknown": "trailing"
+                }
+                """.formatted(flag("a")));
+        assertEquals(1, flags.size());
+        assertEquals("a", flags.get(0).key());
+        assertTrue(read("{\"cohorts\":{}}").isEmpty());
+    }
+
+    @Test
+    void flagsAreDeliveredAsTheyAreRead() {
+        // The payload breaks after the first flag, which has already been handed off by then.
+        List<FeatureFlagsResponse.Flag> flags = new ArrayList<>();
+        var payload = "{\"flags\":[" + flag("a") + ",{\"key\":\"b\",\"filters\":";
+        assertThrows(Exception.class, () -> FeatureFlagsResponse.readFlags(GSON, new JsonReader(new StringReader(payload)), flags::add));
+        assertEquals(List.of("a"), flags.stream().map(FeatureFlagsResponse.Flag::key).toList());
+    }
+
+    @Test
+    void malformedPayload() {
+        assertThrows(Exception.class, () -> read("[]"));
+        assertThrows(Exception.class, () -> read("{\"flags\":{}}"));
+        assertThrows(Exception.class, () -> read("{\"flags\":[{\"key\":1,\"filters\":[]}]}"));
+        assertThrows(Exception.class, () -> read("{\"flags\":[" + flag("a") + "]"));
+    }
+
+    private static List<FeatureFlagsResponse.Flag> read(String json) throws IOException {
+        List<FeatureFlagsResponse.Flag> flags = new ArrayList<>();
+        FeatureFlagsResponse.readFlags(GSON, new JsonReader(new StringReader(json)), flags::add);
+        return flags;
+    }
+
+    private static String flag(String key) {
+        return "{\"key\":\"" + key + "\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":100}],"
+                + "\"payloads\":{},\"multivariate\":null},\"deleted\":false,\"active\":true,\"ensure_experience_continuity\":false}";
+    }
+}
@@ -0,0 +1,93 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileFeatureFlagDefinitionSourceTest {
+
+    @Test
+    void loadsOnStartAndOnChange() throws Exception {
+        var dir = Files.createTempDirectory("posthog-file-source");
+        var file = dir.resolve("flags.json");
+        write(file, "{\"flags\":[1]}");
+
+        var sink = new RecordingSink();
+        var source = FeatureFlagDefinitionSource.file(file);
+        try {
+            source.start(sink);
+            // Loaded before start returns
+            assertEquals("{\"flags\":[1]}", sink.payloads.poll());
+
+            write(file, "{\"flags\":[2]}");
+            assertEquals("{\"flags\":[2]}", sink.next());
+
+            // Unrelated files in the directory are ignored
+            write(dir.resolve("other.json"), "{}");
+            assertNull(sink.payloads.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    void waitsForMissingFile() throws Exception {
+        var dir = Files.createTempDirectory("posthog-file-source");
+        var file = dir.resolve("flags.json");
+
+        var sink = new RecordingSink();
+        var source = FeatureFlagDefinitionSource.file(file);
+        try {
+            source.start(sink);
+            assertTrue(sink.payloads.isEmpty());
+
+            write(file, "{\"flags\":[]}");
+            assertEquals("{\"flags\":[]}", sink.next());
+        } finally {
+            source.close();
+        }
+    }
+
+    // Written next to the file and moved into place, as the source expects.
+    private static void write(@NotNull Path file, @NotNull String content) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, content);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class RecordingSink implements FeatureFlagDefinitionSource.Sink {
+        private final BlockingQueue<String> payloads = new LinkedBlockingQueue<>();
+        private String last = null;
+
+        @Override
+        public synchronized boolean accept(@NotNull InputStream payload, @NotNull Instant fetchedAt) throws IOException {
+            final String value = new String(payload.readAllBytes(), StandardCharsets.UTF_8);
+            if (value.equals(last)) return false;
+            last = value;
+            payloads.add(value);
+            return true;
+        }
+
+        @Override
+        public void unchanged(@NotNull Instant fetchedAt) {
+        }
+
+        @NotNull String next() throws InterruptedException {
+            final String payload = payloads.poll(10, TimeUnit.SECONDS);
+            assertNotNull(payload, "no payload received");
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlagIndexTest {
+
+    @Test
+    void empty() {
+        assertEquals(0, FlagIndex.EMPTY.size());
+        assertEquals(-1, FlagIndex.EMPTY.ordinal("test"));
+    }
+
+    @Test
+    void ordinalsAreMinimalAndPerfect() {
+        var keys = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) keys.add("flag-" + i);
+        var index = FlagIndex.build(keys);
+
+        assertEquals(keys.size(), index.size());
+        Set<Integer> seen = new HashSet<>();
+        for (var key : keys) {
+            int ordinal = index.ordinal(key);
+            assertTrue(ordinal >= 0 && ordinal < keys.size());
+            assertTrue(seen.add(ordinal));
+            assertEquals(key, index.key(ordinal));
+        }
+    }
+
+    @Test
+    void unknownKey() {
+        var index = FlagIndex.build(List.of("a", "b", "c"));
+        assertEquals(-1, index.ordinal("d"));
+        assertEquals(-1, index.ordinal(""));
+    }
+
+    @Test
+    void ordinalsIndependentOfOrder() {
+        var a = FlagIndex.build(List.of("a", "b", "c", "d", "e"));
+        var b = FlagIndex.build(List.of("e", "d", "c", "b", "a"));
+        for (var key : List.of("a", "b", "c", "d", "e"))
+            assertEquals(a.ordinal(key), b.ordinal(key));
+    }
+
+    @Test
+    void duplicateKey() {
+        assertThrows(IllegalArgumentException.class, () -> FlagIndex.build(List.of("a", "a")));
+    }
+
+    @Test
+    void statesFromMap() {
+        var states = new FeatureFlagStates(Map.of("a", FeatureFlagState.ENABLED, "b", FeatureFlagState.DISABLED));
+        assertTrue(states.isEnabled("a"));
+        assertFalse(states.isEnabled("b"));
+        assertFalse(states.isEnabled("c"));
+        assertEquals(Set.of("a", "b"), states.keySet());
+    }
+}
@@ -0,0 +1,95 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlagSessionTest {
+
+    @Test
+    void memoizesWithinSession() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{\"flag\":\"variant\",\"other\":true}}")) {
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                client.withFlagSession("person-a", null, () -> {
+                    assertEquals("variant", client.getFeatureFlag("flag", "person-a").getVariant());
+                    assertEquals("variant", client.getFeatureFlag("flag", "person-a").getVariant());
+                    assertEquals(1, server.decideCalls.get());
+
+                    // Memoized per flag key
+                    assertTrue(client.isFeatureEnabled("other", "person-a"));
+                    assertTrue(client.isFeatureEnabled("other", "person-a"));
+                    assertEquals(2, server.decideCalls.get());
+
+                    // Other distinct ids are not part of the session
+                    client.getFeatureFlag("flag", "person-b");
+                    client.getFeatureFlag("flag", "person-b");
+                    assertEquals(4, server.decideCalls.get());
+                });
+
+                // Nothing is remembered after the session ends
+                client.getFeatureFlag("flag", "person-a");
+                assertEquals(5, server.decideCalls.get());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void nestedSessionRestoresOuter() throws Exception {
+        var pro = new FeatureFlagContext(null, Map.of("plan", "pro"), null, null, null);
+        var free = new FeatureFlagContext(null, Map.of("plan", "free"), null, null, null);
+        try (var server = new TestServer("{\"featureFlags\":{\"flag\":true}}")) {
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                client.withFlagSession("person-a", pro, () -> {
+                    client.getFeatureFlag("flag", "person-a");
+                    assertEquals(1, server.decideCalls.get());
+
+                    client.withFlagSession("person-a", free, () -> {
+                        // The inner session has its own results
+                        client.getFeatureFlag("flag", "person-a");
+                        client.getFeatureFlag("flag", "person-a", free);
+                        assertEquals(2, server.decideCalls.get());
+                    });
+
+                    // The outer session is active again, with its results intact
+                    client.getFeatureFlag("flag", "person-a");
+                    client.getFeatureFlag("flag", "person-a", pro);
+                    assertEquals(2, server.decideCalls.get());
+                });
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void differentContextBypassesSession() throws Exception {
+        var pro = new FeatureFlagContext(null, Map.of("plan", "pro"), null, null, null);
+        var free = new FeatureFlagContext(null, Map.of("plan", "free"), null, null, null);
+        try (var server = new TestServer("{\"featureFlags\":{\"flag\":true}}")) {
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                client.withFlagSession("person-a", pro, () -> {
+                    client.getFeatureFlag("flag", "person-a");
+                    assertEquals(1, server.decideCalls.get());
+
+                    client.getFeatureFlag("flag", "person-a", free);
+                    client.getFeatureFlag("flag", "person-a", free);
+                    assertEquals(3, server.decideCalls.get());
+
+                    // The bypassing calls did not replace the session's result
+                    client.getFeatureFlag("flag", "person-a");
+                    assertEquals(3, server.decideCalls.get());
+                });
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+}
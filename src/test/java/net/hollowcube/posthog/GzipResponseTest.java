@@ -0,0 +1,56 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static net.hollowcube.posthog.FeatureFlagPollingTest.awaitTrue;
+import static org.junit.jupiter.api.Assertions.*;
+
+class GzipResponseTest {
+    private static final String DEFINITIONS = "{\"flags\":[{\"key\":\"local\",\"filters\":{\"groups\":[{\"variant\":null,"
+            + "\"properties\":[],\"rollout_percentage\":100}],\"payloads\":{},\"multivariate\":null},\"deleted\":false,"
+            + "\"active\":true}],\"group_type_mapping\":{},\"cohorts\":{}}";
+
+    @Test
+    void decideResponseIsDecoded() throws Exception {
+        try (var server = new TestServer("{\"featureFlags\":{\"remote\":\"variant\"}}")) {
+            server.gzip = true;
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).build();
+            try {
+                assertEquals("variant", client.getFeatureFlag("remote", "person-a").getVariant());
+                assertEquals(1, server.gzipResponses.get());
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        }
+    }
+
+    @Test
+    void definitionsAreDecodedAndSnapshotIsPlain() throws Exception {
+        var dir = Files.createTempDirectory("posthog-gzip");
+        var file = dir.resolve("flags.json");
+        try (var server = new TestServer("{}")) {
+            server.gzip = true;
+            server.flagDefinitions = DEFINITIONS;
+            var client = PostHogClient.newBuilder("key").endpoint(server.endpoint()).personalApiKey("personal")
+                    .featureFlagsSnapshotFile(file)
+                    .awaitFeatureFlagsOnBuild(Duration.ofSeconds(10))
+                    .allowRemoteFeatureFlagEvaluation(false)
+                    .build();
+            try {
+                assertTrue(client.isFeatureEnabled("local", "person-a"));
+                assertTrue(server.gzipResponses.get() > 0);
+                // The snapshot holds the decompressed payload so that it can be read back without the header
+                awaitTrue(() -> Files.exists(file));
+                assertEquals(DEFINITIONS, Files.readString(file));
+            } finally {
+                client.shutdown(Duration.ofSeconds(1));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
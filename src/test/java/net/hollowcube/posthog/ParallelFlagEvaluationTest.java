@@ -0,0 +1,53 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelFlagEvaluationTest {
+
+    @Test
+    void sameAsSequential() {
+        var snapshot = snapshot(1000, -1);
+        var states = new FeatureFlagState[snapshot.ordered().size()];
+        assertFalse(ParallelFlagEvaluation.evaluate(EVALUATOR, snapshot.ordered(), "person-a", FeatureFlagContext.EMPTY, states, true));
+
+        for (int i = 0; i < states.length; i++) {
+            var expected = FeatureFlagEvaluator.evaluateFeatureFlag(GSON, snapshot.ordered().get(i), "person-a", FeatureFlagContext.EMPTY);
+            assertSame(expected, states[i]);
+        }
+    }
+
+    @Test
+    void abortOnInconclusive() {
+        var snapshot = snapshot(1000, 500);
+        var states = new FeatureFlagState[snapshot.ordered().size()];
+        assertTrue(ParallelFlagEvaluation.evaluate(EVALUATOR, snapshot.ordered(), "person-a", FeatureFlagContext.EMPTY, states, true));
+    }
+
+    @Test
+    void inconclusiveWithoutAbort() {
+        var snapshot = snapshot(1000, 500);
+        var states = new FeatureFlagState[snapshot.ordered().size()];
+        assertFalse(ParallelFlagEvaluation.evaluate(EVALUATOR, snapshot.ordered(), "person-a", FeatureFlagContext.EMPTY, states, false));
+        for (var state : states) assertNotNull(state);
+    }
+
+    private static final Gson GSON = new GsonBuilder().disableJdkUnsafe().create();
+    private static final ParallelFlagEvaluation.Evaluator EVALUATOR = (flag, distinctId, context) ->
+            FeatureFlagEvaluator.evaluateFeatureFlag(GSON, flag, distinctId, context);
+
+    private static @NotNull FeatureFlagSnapshot snapshot(int count, int continuityFlag) {
+        var flags = new ArrayList<FeatureFlagsResponse.Flag>();
+        for (int i = 0; i < count; i++) {
+            var raw = "{\"key\":\"flag-" + i + "\",\"filters\":{\"groups\":[{\"variant\":null,\"properties\":[],\"rollout_percentage\":" + (i % 100) + "}],\"payloads\":{},\"multivariate\":null},\"active\":true,\"ensure_experience_continuity\":" + (i == continuityFlag) + "}";
+            flags.add(GSON.fromJson(raw, FeatureFlagsResponse.Flag.class));
+        }
+        return FeatureFlagSnapshot.compile(1, flags, new byte[0]);
+    }
+}
@@ -0,0 +1,85 @@
+package net.hollowcube.posthog;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PropertyMemoryTest {
+
+    @Test
+    void learnsSetSetOnceAndUnset() {
+        var memory = new PropertyMemory(100, 100);
+        assertNull(memory.person("person-a"));
+
+        memory.learn("person-a", "$identify", props("$set", object("plan", "free"), "$set_once", object("source", "ads")));
+        memory.learn("person-a", "upgraded", props("$set", object("plan", "pro"), "$set_once", object("source", "organic")));
+        var person = memory.person("person-a");
+        assertNotNull(person);
+        assertEquals("pro", person.get("plan").getAsString());
+        assertEquals("ads", person.get("source").getAsString());
+
+        var unset = new JsonArray();
+        unset.add("plan");
+        var props = new JsonObject();
+        props.add("$unset", unset);
+        memory.learn("person-a", "downgraded", props);
+        assertFalse(memory.person("person-a").has("plan"));
+        // Previously returned objects are not modified.
+        assertEquals("pro", person.get("plan").getAsString());
+    }
+
+    @Test
+    void learnsGroupSetFromGroupIdentify() {
+        var memory = new PropertyMemory(100, 100);
+        var props = props("$group_set", object("tier", "enterprise"));
+        props.addProperty("$group_type", "company");
+        props.addProperty("$groupkey", "acme");
+
+        memory.learn("$company_acme", "some event", props);
+        assertNull(memory.group("company", "acme"));
+        memory.learn("$company_acme", "$groupidentify", props);
+        assertEquals("enterprise", memory.group("company", "acme").get("tier").getAsString());
+        assertNull(memory.person("$company_acme"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        // One entry per stripe, so every person beyond the first in a stripe evicts the previous one.
+        var memory = new PropertyMemory(16, 16);
+        for (int i = 0; i < 1000; i++) memory.learn("person-" + i, "$identify", props("$set", object("i", "x")));
+        int remembered = 0;
+        for (int i = 0; i < 1000; i++) if (memory.person("person-" + i) != null) remembered++;
+        assertTrue(remembered <= 16, "remembered " + remembered);
+        assertNotNull(memory.person("person-999"));
+    }
+
+    @Test
+    void remembersExactlyTheLimit() {
+        // 20 does not divide into the stripes evenly, the first stripes take the remainder.
+        var memory = new PropertyMemory(20, 1);
+        for (int i = 0; i < 1000; i++) memory.learn("person-" + i, "$identify", props("$set", object("i", "x")));
+        int remembered = 0;
+        for (int i = 0; i < 1000; i++) if (memory.person("person-" + i) != null) remembered++;
+        assertEquals(20, remembered);
+    }
+
+    private static JsonObject object(String key, String value) {
+        var object = new JsonObject();
+        object.addProperty(key, value);
+        return object;
+    }
+
+    private static JsonObject props(String key, JsonObject value) {
+        var props = new JsonObject();
+        props.add(key, value);
+        return props;
+    }
+
+    private static JsonObject props(String key1, JsonObject value1, String key2, JsonObject value2) {
+        var props = props(key1, value1);
+        props.add(key2, value2);
+        return props;
+    }
+}
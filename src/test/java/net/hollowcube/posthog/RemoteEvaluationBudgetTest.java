@@ -0,0 +1,64 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteEvaluationBudgetTest {
+
+    @Test
+    void unlimited() {
+        var budget = new RemoteEvaluationBudget(null, null);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(budget.tryAcquire());
+            budget.onFailure();
+        }
+        assertEquals(100, budget.stats().requests());
+        assertEquals(100, budget.stats().failures());
+    }
+
+    @Test
+    void rateLimited() {
+        var budget = new RemoteEvaluationBudget(new TokenBucket(0.001, 2), null);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+        assertEquals(2, budget.stats().requests());
+        assertEquals(1, budget.stats().rateLimited());
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveFailures() {
+        var budget = new RemoteEvaluationBudget(null, new CircuitBreaker(3, Duration.ofHours(1)));
+        for (int i = 0; i < 2; i++) {
+            assertTrue(budget.tryAcquire());
+            budget.onFailure();
+        }
+        assertTrue(budget.tryAcquire());
+        budget.onSuccess(); // Resets the count
+        for (int i = 0; i < 3; i++) {
+            assertTrue(budget.tryAcquire());
+            budget.onFailure();
+        }
+
+        assertFalse(budget.tryAcquire());
+        assertTrue(budget.stats().circuitOpen());
+        assertEquals(1, budget.stats().shortCircuited());
+    }
+
+    @Test
+    void circuitHalfOpenAllowsSingleTrial() {
+        var budget = new RemoteEvaluationBudget(null, new CircuitBreaker(1, Duration.ZERO));
+        assertTrue(budget.tryAcquire());
+        budget.onFailure();
+
+        assertTrue(budget.tryAcquire()); // Trial request
+        assertFalse(budget.tryAcquire());
+        budget.onSuccess();
+
+        assertFalse(budget.stats().circuitOpen());
+        assertTrue(budget.tryAcquire());
+    }
+}
@@ -0,0 +1,184 @@
+package net.hollowcube.posthog;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedFeatureFlagDefinitionSourceTest {
+
+    @Test
+    void followerObservesLeaderPublications() throws Exception {
+        var dir = Files.createTempDirectory("posthog-shared");
+        var file = dir.resolve("flags.bin");
+        var leaderUpstream = new ManualSource();
+        var followerUpstream = new ManualSource();
+        var leaderSink = new RecordingSink();
+        var followerSink = new RecordingSink();
+
+        // Both in one process, the lock is held per process so the second instance cannot take it.
+        var leader = new SharedFeatureFlagDefinitionSource(file, leaderUpstream);
+        var follower = new SharedFeatureFlagDefinitionSource(file, followerUpstream);
+        try {
+            leader.start(leaderSink);
+            awaitTrue(() -> leaderUpstream.sink != null);
+            follower.start(followerSink);
+
+            leaderUpstream.publish("{\"flags\":[]}");
+            assertEquals("{\"flags\":[]}", leaderSink.next());
+            follower.reload();
+            assertEquals("{\"flags\":[]}", followerSink.next());
+
+            // A larger payload grows the file, so the follower has to map it again.
+            var large = "{\"flags\":[],\"padding\":\"" + "x".repeat(64 * 1024) + "\"}";
+            leaderUpstream.publish(large);
+            assertEquals(large, leaderSink.next());
+            follower.reload();
+            assertEquals(large, followerSink.next());
+
+            assertFalse(follower.isLeader());
+            assertNull(followerUpstream.sink, "the follower must not start its upstream");
+        } finally {
+            follower.close();
+            leader.close();
+        }
+    }
+
+    @Test
+    void failedAndUnchangedPayloadsAreNotRead() throws Exception {
+        var dir = Files.createTempDirectory("posthog-shared");
+        var file = dir.resolve("flags.bin");
+        var leaderUpstream = new ManualSource();
+        var leaderSink = new RecordingSink();
+        var followerSink = new RecordingSink();
+        var leader = new SharedFeatureFlagDefinitionSource(file, leaderUpstream);
+        var follower = new SharedFeatureFlagDefinitionSource(file, new ManualSource());
+        try {
+            leader.start(leaderSink);
+            awaitTrue(() -> leaderUpstream.sink != null);
+            follower.start(followerSink);
+            leaderUpstream.publish("{\"flags\":[1]}");
+            follower.reload();
+            assertEquals("{\"flags\":[1]}", followerSink.next());
+            var accepted = followerSink.accepted.get();
+
+            // Identical definitions are written in place without a new sequence.
+            leaderUpstream.publish("{\"flags\":[1]}");
+            follower.reload();
+            Thread.sleep(200);
+            assertEquals(accepted, followerSink.accepted.get());
+
+            // A payload the leader fails to parse is never read.
+            assertThrows(IOException.class, () -> leaderUpstream.publish("invalid"));
+            follower.reload();
+            Thread.sleep(200);
+            assertEquals(accepted, followerSink.accepted.get());
+
+            // Even if the next payload is identical to the last good one.
+            leaderUpstream.publish("{\"flags\":[1]}");
+            follower.reload();
+            awaitTrue(() -> followerSink.accepted.get() > accepted);
+        } finally {
+            follower.close();
+            leader.close();
+        }
+    }
+
+    @Test
+    void newInstanceReadsExistingPayload() throws Exception {
+        var dir = Files.createTempDirectory("posthog-shared");
+        var file = dir.resolve("flags.bin");
+        var upstream = new ManualSource();
+        var first = new SharedFeatureFlagDefinitionSource(file, upstream);
+        first.start(new RecordingSink());
+        awaitTrue(() -> upstream.sink != null);
+        upstream.publish("{\"flags\":[1]}");
+        first.close();
+
+        // The lock was released, so the next instance reads the payload and takes over.
+        var nextUpstream = new ManualSource();
+        var next = new SharedFeatureFlagDefinitionSource(file, nextUpstream);
+        var sink = new RecordingSink();
+        try {
+            next.start(sink);
+            assertEquals("{\"flags\":[1]}", sink.next());
+            awaitTrue(next::isLeader);
+            awaitTrue(() -> nextUpstream.sink != null);
+        } finally {
+            next.close();
+        }
+    }
+
+    private static void awaitTrue(@NotNull BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * An upstream source which publishes payloads when told to.
+     */
+    private static final class ManualSource implements FeatureFlagDefinitionSource {
+        volatile Sink sink = null;
+
+        void publish(@NotNull String payload) throws IOException {
+            try (InputStream in = new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8))) {
+                sink.accept(in, Instant.now());
+            }
+        }
+
+        @Override
+        public void start(@NotNull Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void reload() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class RecordingSink implements FeatureFlagDefinitionSource.Sink {
+        private final BlockingQueue<String> payloads = new LinkedBlockingQueue<>();
+        private final AtomicInteger accepted = new AtomicInteger();
+        private String last = null;
+
+        @Override
+        public synchronized boolean accept(@NotNull InputStream payload, @NotNull Instant fetchedAt) throws IOException {
+            final String value = new String(payload.readAllBytes(), StandardCharsets.UTF_8);
+            accepted.incrementAndGet();
+            if (!value.startsWith("{")) throw new IOException("Invalid payload");
+            if (value.equals(last)) return false;
+            last = value;
+            payloads.add(value);
+            return true;
+        }
+
+        @Override
+        public void unchanged(@NotNull Instant fetchedAt) {
+        }
+
+        @NotNull String next() throws InterruptedException {
+            final String payload = payloads.poll(10, TimeUnit.SECONDS);
+            assertNotNull(payload, "no payload received");
+            return payload;
+        }
+    }
+}
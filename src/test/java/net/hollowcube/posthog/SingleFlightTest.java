@@ -0,0 +1,98 @@
+package net.hollowcube.posthog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneTask() throws Exception {
+        var singleFlight = new SingleFlight<String, String>();
+        var task = new CompletableFuture<String>();
+        var started = new AtomicInteger();
+        var callers = 16;
+        var ready = new CountDownLatch(callers);
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<CompletableFuture<String>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    return singleFlight.execute("key", () -> {
+                        started.incrementAndGet();
+                        return task;
+                    });
+                }));
+            }
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (var result : results) futures.add(result.get(5, TimeUnit.SECONDS));
+
+            task.complete("result");
+            for (var future : futures) assertEquals("result", future.get(5, TimeUnit.SECONDS));
+            assertEquals(1, started.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void callersGetIsolatedCopies() throws Exception {
+        var singleFlight = new SingleFlight<String, String>();
+        var task = new CompletableFuture<String>();
+        var first = singleFlight.execute("key", () -> task);
+        var second = singleFlight.execute("key", () -> fail("task started twice"));
+
+        // Completing or cancelling one caller's future does not affect the others or the task.
+        first.complete("overridden");
+        second.cancel(false);
+        var third = singleFlight.execute("key", () -> fail("task started twice"));
+        assertFalse(task.isDone());
+
+        task.complete("result");
+        assertEquals("overridden", first.get());
+        assertTrue(second.isCancelled());
+        assertEquals("result", third.get());
+    }
+
+    @Test
+    void newTaskAfterCompletion() throws Exception {
+        var singleFlight = new SingleFlight<String, Integer>();
+        var started = new AtomicInteger();
+        assertEquals(1, singleFlight.execute("key", () -> CompletableFuture.completedFuture(started.incrementAndGet())).get().intValue());
+        assertEquals(2, singleFlight.execute("key", () -> CompletableFuture.completedFuture(started.incrementAndGet())).get().intValue());
+        assertEquals(3, singleFlight.execute("other", () -> CompletableFuture.completedFuture(started.incrementAndGet())).get().intValue());
+    }
+
+    @Test
+    void failuresAreSharedAndNotRemembered() throws Exception {
+        var singleFlight = new SingleFlight<String, String>();
+        var task = new CompletableFuture<String>();
+        var first = singleFlight.execute("key", () -> task);
+        var second = singleFlight.execute("key", () -> task);
+        task.completeExceptionally(new IllegalStateException("failed"));
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, first::get).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, second::get).getCause());
+
+        // A task which throws instead of returning a future is also reported to the caller.
+        var thrown = singleFlight.execute("key", () -> {
+            throw new IllegalArgumentException("thrown");
+        });
+        assertInstanceOf(IllegalArgumentException.class, assertThrows(ExecutionException.class, thrown::get).getCause());
+        assertEquals("ok", singleFlight.execute("key", () -> CompletableFuture.completedFuture("ok")).get());
+    }
+}
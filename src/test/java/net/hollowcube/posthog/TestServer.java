@@ -0,0 +1,117 @@
+package net.hollowcube.posthog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * A local stand in for PostHog, answering /decide with a fixed response and recording /batch requests.
+ *
+ * <p>Flag definitions are served from the local evaluation endpoint once {@link #flagDefinitions} is set, with
+ * {@link #etag} as validator if set. Responses are gzip compressed if {@link #gzip} is set and the client
+ * accepts it.</p>
+ */
+final class TestServer implements AutoCloseable {
+    final AtomicInteger decideCalls = new AtomicInteger();
+    volatile String lastDecideBody = null;
+    volatile CountDownLatch decideGate = null; // /decide waits for it if set
+
+    volatile String flagDefinitions = null; // Not found if null
+    volatile String etag = null;
+    final AtomicInteger flagDefinitionCalls = new AtomicInteger();
+    final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    volatile boolean gzip = false;
+    final AtomicInteger gzipResponses = new AtomicInteger();
+
+    private final BlockingQueue<String> batches = new LinkedBlockingQueue<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+
+    TestServer(@NotNull String decideResponse) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/decide", exchange -> {
+            lastDecideBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            decideCalls.incrementAndGet();
+            final CountDownLatch gate = decideGate;
+            if (gate != null) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            respond(exchange, decideResponse);
+        });
+        this.server.createContext("/batch", exchange -> {
+            batches.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            respond(exchange, "{}");
+        });
+        this.server.createContext("/api/feature_flag/local_evaluation", exchange -> {
+            final String body = flagDefinitions;
+            final String tag = etag;
+            flagDefinitionCalls.incrementAndGet();
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            } else if (tag != null && tag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                if (tag != null) exchange.getResponseHeaders().set("ETag", tag);
+                respond(exchange, body);
+            }
+        });
+        this.server.start();
+    }
+
+    @NotNull String endpoint() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @NotNull String nextBatch() throws InterruptedException {
+        final String batch = batches.poll(10, TimeUnit.SECONDS);
+        assertNotNull(batch, "no batch received");
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void respond(@NotNull HttpExchange exchange, @NotNull String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            gzipResponses.incrementAndGet();
+        }
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}